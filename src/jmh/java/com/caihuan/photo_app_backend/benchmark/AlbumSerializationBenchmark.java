@@ -0,0 +1,57 @@
+package com.caihuan.photo_app_backend.benchmark;
+
+import com.caihuan.photo_app_backend.config.JacksonConfig;
+import com.caihuan.photo_app_backend.entity.Album;
+import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.payload.response.SharedAlbumResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 相册照片列表 (List&lt;Photo&gt;) 和分享页 (SharedAlbumResponse) 的 JSON 序列化
+ * 使用应用中同一个 ObjectMapper 配置，相册大小覆盖普通相册到大型婚礼相册。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlbumSerializationBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int albumSize;
+
+    private ObjectWriter photoListWriter;
+    private ObjectWriter sharedAlbumWriter;
+    private List<Photo> photos;
+    private SharedAlbumResponse sharedAlbum;
+
+    @Setup
+    public void setup() {
+        ObjectMapper objectMapper = new JacksonConfig().objectMapper();
+        photoListWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, Photo.class));
+        sharedAlbumWriter = objectMapper.writerFor(SharedAlbumResponse.class);
+
+        Album album = BenchmarkFixtures.album();
+        photos = BenchmarkFixtures.photos(album, albumSize);
+        sharedAlbum = new SharedAlbumResponse(album, BenchmarkFixtures.summaries(photos), null);
+    }
+
+    @Benchmark
+    public byte[] serializePhotos() throws JsonProcessingException {
+        return photoListWriter.writeValueAsBytes(photos);
+    }
+
+    @Benchmark
+    public byte[] serializeSharedAlbum() throws JsonProcessingException {
+        return sharedAlbumWriter.writeValueAsBytes(sharedAlbum);
+    }
+}
@@ -0,0 +1,46 @@
+package com.caihuan.photo_app_backend.benchmark;
+
+import com.caihuan.photo_app_backend.payload.dto.PhotoArchiveDto;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 批量同步 (BatchProcessService.processAndSaveArchives) 中 PhotoArchiveDto 的 Base64 解码
+ * 缩略图和预览图大小取客户端生成的典型值。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchivePayloadBenchmark {
+
+    // 缩略图 / 预览图的原始大小 (KB)
+    @Param({"32:256", "64:1024"})
+    public String imageSizesKb;
+
+    private PhotoArchiveDto archive;
+
+    @Setup
+    public void setup() {
+        String[] sizes = imageSizesKb.split(":");
+        archive = new PhotoArchiveDto();
+        archive.setOriginalFileName("IMG_1000.JPG");
+        archive.setThumbnailBase64(Base64.getEncoder().encodeToString(
+                BenchmarkFixtures.randomBytes(Integer.parseInt(sizes[0]) * 1024)));
+        archive.setPreviewBase64(Base64.getEncoder().encodeToString(
+                BenchmarkFixtures.randomBytes(Integer.parseInt(sizes[1]) * 1024)));
+    }
+
+    @Benchmark
+    public void decodeArchive(Blackhole blackhole) {
+        blackhole.consume(Base64.getDecoder().decode(archive.getThumbnailBase64()));
+        blackhole.consume(Base64.getDecoder().decode(archive.getPreviewBase64()));
+    }
+}
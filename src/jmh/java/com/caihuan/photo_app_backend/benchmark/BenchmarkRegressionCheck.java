@@ -0,0 +1,99 @@
+package com.caihuan.photo_app_backend.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 比较 JMH 结果与基线，发现性能回退时以非零状态退出
+ * 用法: BenchmarkRegressionCheck &lt;结果 json&gt; &lt;基线 json&gt; [容差，默认 0.10]
+ * 吞吐量模式 (thrpt) 分数越高越好，其余模式 (avgt / sample / ss) 越低越好；
+ * 比基线差超过容差即判为回退。基线中没有的基准只输出，不参与判断。
+ */
+public final class BenchmarkRegressionCheck {
+
+    private BenchmarkRegressionCheck() {
+    }
+
+    private record Score(String mode, double score, double error, String unit) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: BenchmarkRegressionCheck <结果 json> <基线 json> [容差]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[1]);
+        if (!baselineFile.isFile()) {
+            System.err.println("基线文件 " + baselineFile + " 不存在，请先运行基准测试并把结果复制为基线。");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        Map<String, Score> current = read(new File(args[0]));
+        Map<String, Score> baseline = read(baselineFile);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-8s %s: %.3f %s (无基线)%n", "NEW", entry.getKey(), now.score(), now.unit());
+                continue;
+            }
+            if (!before.mode().equals(now.mode()) || !before.unit().equals(now.unit())) {
+                System.out.printf("%-8s %s: 模式或单位与基线不同 (%s %s -> %s %s)，跳过%n", "SKIP", entry.getKey(),
+                        before.mode(), before.unit(), now.mode(), now.unit());
+                continue;
+            }
+            boolean higherIsBetter = "thrpt".equals(now.mode());
+            // 正数表示变差的比例
+            double worse = higherIsBetter
+                    ? (before.score() - now.score()) / before.score()
+                    : (now.score() - before.score()) / before.score();
+            boolean regressed = worse > tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-8s %s: %.3f ± %.3f -> %.3f ± %.3f %s (%+.1f%%)%n",
+                    regressed ? "REGRESS" : "OK", entry.getKey(), before.score(), before.error(),
+                    now.score(), now.error(), now.unit(), -worse * 100);
+        }
+
+        if (regressions > 0) {
+            System.err.printf("%d 个基准比基线差超过 %.0f%%%n", regressions, tolerance * 100);
+            System.exit(1);
+        }
+        System.out.println("没有发现性能回退。");
+    }
+
+    /**
+     * 读取 JMH 的 json 结果，以 "基准名[参数...]" 为键。
+     */
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            JsonNode params = result.path("params");
+            if (params.isObject()) {
+                Map<String, String> sorted = new TreeMap<>();
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> param = it.next();
+                    sorted.put(param.getKey(), param.getValue().asText());
+                }
+                key.append(sorted);
+            }
+            JsonNode metric = result.path("primaryMetric");
+            scores.put(key.toString(), new Score(result.path("mode").asText(), metric.path("score").asDouble(),
+                    metric.path("scoreError").asDouble(), metric.path("scoreUnit").asText()));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,51 @@
+package com.caihuan.photo_app_backend.benchmark;
+
+import com.caihuan.photo_app_backend.services.CategoryRuleEngine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 照片分类 (ImageAnalysisService.classifyPhoto 委托给 CategoryRuleEngine) 的耗时
+ * 使用随包发布的 category-rules.json，每次调用对一张照片的标签分类。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CategoryClassificationBenchmark {
+
+    private static final int LABEL_SETS = 1024;
+
+    // 一次 Rekognition 调用返回的标签数
+    @Param({"10", "30"})
+    public int labelsPerPhoto;
+
+    private CategoryRuleEngine engine;
+    private List<List<String>> labelSets;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        engine = new CategoryRuleEngine(new DefaultResourceLoader(), new ObjectMapper());
+        ReflectionTestUtils.setField(engine, "location", "classpath:category-rules.json");
+        ReflectionTestUtils.setField(engine, "reloadIntervalSeconds", 0L);
+        engine.init();
+        labelSets = BenchmarkFixtures.labelSets(LABEL_SETS, labelsPerPhoto);
+    }
+
+    @Benchmark
+    public List<String> classify() {
+        List<String> labels = labelSets.get(next++ & (LABEL_SETS - 1));
+        return engine.classify(labels, (next & 1) == 0);
+    }
+}
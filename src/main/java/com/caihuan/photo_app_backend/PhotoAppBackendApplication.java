@@ -4,12 +4,30 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 
+import java.util.Map;
+
 @SpringBootApplication
 @EnableAsync
 public class PhotoAppBackendApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(PhotoAppBackendApplication.class, args);
+		SpringApplication app = new SpringApplication(PhotoAppBackendApplication.class);
+		// 默认配置，优先级最低，配置文件中的同名配置会覆盖它们
+		app.setDefaultProperties(Map.of(
+				// multipart 批量同步：每个 part 直接落盘。容器的上限按批量同步设置，
+				// 其他接口由 MultipartRequestLimitFilter 限制为 photoapp.multipart.max-request-size
+				"spring.servlet.multipart.file-size-threshold", "0",
+				"spring.servlet.multipart.max-request-size", "${photoapp.batch.multipart.max-request-size:8GB}",
+				// 监控：通过 /actuator/prometheus 暴露指标。actuator 单独监听一个端口，只在内网开放，
+				// Prometheus 免登录抓取只对这个端口生效 (见 WebSecurityConfig)
+				"management.endpoints.web.exposure.include", "health,info,metrics,prometheus",
+				"management.server.port", "${photoapp.management.port:8081}",
+				// 以下计时器发布直方图，Prometheus 端可以按任意分位数 (如 p99) 聚合和告警
+				"management.metrics.distribution.percentiles-histogram.s3.requests", "true",
+				"management.metrics.distribution.percentiles-histogram.rekognition.requests", "true",
+				"management.metrics.distribution.percentiles-histogram.spring.data.repository.invocations", "true",
+				"management.metrics.distribution.percentiles-histogram.http.server.requests", "true"));
+		app.run(args);
 	}
 
 }
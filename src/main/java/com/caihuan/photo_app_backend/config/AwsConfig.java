@@ -1,29 +1,61 @@
 package com.caihuan.photo_app_backend.config;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.time.Duration;
+
 @Configuration
 public class AwsConfig {
 
-    @Value("${aws.accessKeyId}")
+    // 未配置时使用 SDK 默认的凭证链 (环境变量、实例角色等)
+    @Value("${aws.accessKeyId:}")
     private String accessKey;
 
-    @Value("${aws.secretKey}")
+    @Value("${aws.secretKey:}")
     private String secretKey;
 
-    @Value("${aws.s3.region}")
+    @Value("${aws.s3.region:us-east-1}")
     private String region;
 
+    // 分片上传：超过该大小的对象才拆分成多个分片 (MB)
+    @Value("${photoapp.s3.multipart.threshold-mb:16}")
+    private long multipartThresholdMb;
+
+    // 每个分片的大小 (MB)，S3 要求除最后一片外不小于 5MB
+    @Value("${photoapp.s3.multipart.part-size-mb:8}")
+    private long multipartPartSizeMb;
+
+    // 单个上传在内存中缓冲的分片数据上限 (MB)，决定了一个文件能同时上传几个分片
+    @Value("${photoapp.s3.multipart.buffer-size-mb:64}")
+    private long multipartBufferSizeMb;
+
+    // 异步客户端连接池大小，即所有上传同时进行的分片请求总数上限
+    @Value("${photoapp.s3.async.max-connections:64}")
+    private int asyncMaxConnections;
+
+    // 连接池满时等待空闲连接的时长 (秒)
+    @Value("${photoapp.s3.async.connection-acquire-timeout-seconds:60}")
+    private long asyncConnectionAcquireTimeoutSeconds;
+
     @Bean
-    public StaticCredentialsProvider staticCredentialsProvider() {
+    public AwsCredentialsProvider awsCredentialsProvider() {
+        if (accessKey.isBlank() || secretKey.isBlank()) {
+            return DefaultCredentialsProvider.create();
+        }
         return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
     }
 
@@ -32,16 +64,41 @@ public class AwsConfig {
         return Region.of(region);
     }
 
+    // S3 相关的客户端只在使用 S3 存储时创建
     @Bean
-    public S3Client s3Client(Region region, StaticCredentialsProvider credentialsProvider) {
+    @ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "s3", matchIfMissing = true)
+    public S3Client s3Client(Region region, AwsCredentialsProvider credentialsProvider) {
         return S3Client.builder()
                 .region(region)
                 .credentialsProvider(credentialsProvider)
                 .build();
     }
     
+    /**
+     * 用于大文件上传的异步客户端：基于 Netty 的非阻塞连接池，开启 SDK 自带的分片上传，
+     * 多个分片通过连接池并行发送，不占用请求线程。
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "s3", matchIfMissing = true)
+    public S3AsyncClient s3AsyncClient(Region region, AwsCredentialsProvider credentialsProvider) {
+        return S3AsyncClient.builder()
+                .region(region)
+                .credentialsProvider(credentialsProvider)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(asyncMaxConnections)
+                        .connectionAcquisitionTimeout(Duration.ofSeconds(asyncConnectionAcquireTimeoutSeconds)))
+                .multipartEnabled(true)
+                .multipartConfiguration(MultipartConfiguration.builder()
+                        .thresholdInBytes(multipartThresholdMb * 1024 * 1024)
+                        .minimumPartSizeInBytes(multipartPartSizeMb * 1024 * 1024)
+                        .apiCallBufferSizeInBytes(multipartBufferSizeMb * 1024 * 1024)
+                        .build())
+                .build();
+    }
+
     @Bean
-    public S3Presigner s3Presigner(Region region, StaticCredentialsProvider credentialsProvider) {
+    @ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "s3", matchIfMissing = true)
+    public S3Presigner s3Presigner(Region region, AwsCredentialsProvider credentialsProvider) {
         return S3Presigner.builder()
                 .region(region)
                 .credentialsProvider(credentialsProvider)
@@ -49,7 +106,7 @@ public class AwsConfig {
     }
     
     @Bean
-    public RekognitionClient rekognitionClient(Region region, StaticCredentialsProvider credentialsProvider) {
+    public RekognitionClient rekognitionClient(Region region, AwsCredentialsProvider credentialsProvider) {
         return RekognitionClient.builder()
                 .region(region)
                 .credentialsProvider(credentialsProvider)
@@ -0,0 +1,77 @@
+package com.caihuan.photo_app_backend.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description multipart 请求的大小限制
+ * Servlet 容器的 multipart 配置 (spring.servlet.multipart.*) 对所有接口生效，只能按最大的批量同步请求来设置。
+ * 这里在解析请求体之前按接口区分上限：multipart 批量同步使用 photoapp.batch.multipart.max-request-size，
+ * 其他接口使用 photoapp.multipart.max-request-size。
+ * 容器只会读取 Content-Length 声明的字节数，因此检查 Content-Length 即可限制实际写入磁盘的大小；
+ * 没有 Content-Length 的分块 (chunked) multipart 请求直接拒绝。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MultipartRequestLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultipartRequestLimitFilter.class);
+
+    private static final String BATCH_SYNC_PATTERN = "/api/batch/sync/*";
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    // 一般接口的 multipart 请求大小上限
+    @Value("${photoapp.multipart.max-request-size:100MB}")
+    private DataSize maxRequestSize;
+
+    // multipart 批量同步的请求大小上限 (一次同步可能包含上千张缩略图和预览图)
+    @Value("${photoapp.batch.multipart.max-request-size:8GB}")
+    private DataSize batchMaxRequestSize;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long contentLength = request.getContentLengthLong();
+        if (contentLength < 0) {
+            response.sendError(HttpServletResponse.SC_LENGTH_REQUIRED, "multipart 请求必须带有 Content-Length");
+            return;
+        }
+        long limit = isBatchSync(request) ? batchMaxRequestSize.toBytes() : maxRequestSize.toBytes();
+        if (contentLength > limit) {
+            logger.warn("拒绝过大的 multipart 请求 {} {}: {} 字节，上限 {} 字节",
+                    request.getMethod(), request.getRequestURI(), contentLength, limit);
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "请求体超过 " + limit + " 字节的上限");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private boolean isBatchSync(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return HttpMethod.POST.matches(request.getMethod()) && pathMatcher.match(BATCH_SYNC_PATTERN, path);
+    }
+}
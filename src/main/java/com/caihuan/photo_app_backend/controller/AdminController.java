@@ -0,0 +1,79 @@
+package com.caihuan.photo_app_backend.controller;
+
+import com.caihuan.photo_app_backend.payload.response.MessageResponse;
+import com.caihuan.photo_app_backend.services.CategoryRuleEngine;
+import com.caihuan.photo_app_backend.services.PhotoReclassificationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 管理员接口：分类规则重新加载与照片批量重新分类
+ */
+@RestController
+@RequestMapping("/api/admin")
+@CrossOrigin(origins = "*", maxAge = 3600)
+@PreAuthorize("hasRole('ADMIN')")
+@RequiredArgsConstructor
+public class AdminController {
+
+    private final PhotoReclassificationService reclassificationService;
+    private final CategoryRuleEngine categoryRuleEngine;
+
+    // 立即重新加载分类规则文件 (不等待定期检查)
+    @PostMapping("/category-rules/reload")
+    public ResponseEntity<?> reloadCategoryRules() {
+        if (!categoryRuleEngine.reload()) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(new MessageResponse("分类规则加载失败，继续使用旧规则 (详见日志)"));
+        }
+        return ResponseEntity.ok(new MessageResponse("分类规则已重新加载，版本 " + categoryRuleEngine.version()));
+    }
+
+    // 用已保存的标签按当前规则重新分类所有已分析的照片
+    @PostMapping("/reclassification")
+    public ResponseEntity<?> startReclassification() {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(reclassificationService.start());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    // 最近一个任务的进度
+    @GetMapping("/reclassification")
+    public ResponseEntity<?> getLatestReclassification() {
+        return reclassificationService.latest()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // 任务进度与检查点 (lastPhotoId)
+    @GetMapping("/reclassification/{jobId}")
+    public ResponseEntity<?> getReclassification(@PathVariable Long jobId) {
+        return ResponseEntity.ok(reclassificationService.get(jobId));
+    }
+
+    // 从检查点继续暂停或失败的任务
+    @PostMapping("/reclassification/{jobId}/resume")
+    public ResponseEntity<?> resumeReclassification(@PathVariable Long jobId) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(reclassificationService.resume(jobId));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    // 停止任务，当前在途的分块完成后保存检查点
+    @PostMapping("/reclassification/{jobId}/stop")
+    public ResponseEntity<?> stopReclassification(@PathVariable Long jobId) {
+        if (!reclassificationService.stop(jobId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse("任务 " + jobId + " 没有在运行"));
+        }
+        return ResponseEntity.accepted().body(new MessageResponse("正在停止任务 " + jobId));
+    }
+}
@@ -1,14 +1,29 @@
 package com.caihuan.photo_app_backend.controller;
 
+import com.caihuan.photo_app_backend.entity.Album;
 import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
 import com.caihuan.photo_app_backend.payload.dto.PhotoArchiveDto;
+import com.caihuan.photo_app_backend.payload.request.PresignedUploadRequest;
+import com.caihuan.photo_app_backend.payload.response.MessageResponse;
+import com.caihuan.photo_app_backend.payload.response.PresignedUploadResponse;
+import com.caihuan.photo_app_backend.repository.AlbumRepository;
 import com.caihuan.photo_app_backend.services.BatchProcessService;
+import com.caihuan.photo_app_backend.services.UserDetailsImpl;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @Author nanako
@@ -22,6 +37,7 @@ import java.util.List;
 public class BatchProcessController {
 
     private final BatchProcessService batchProcessService;
+    private final AlbumRepository albumRepository;
 
     /**
      * 接收并处理前端经过本地AI初筛后，批量上传的数字档案。
@@ -41,5 +57,96 @@ public class BatchProcessController {
         // 【核心修改】将保存后的照片列表（包含数据库ID）返回给前端
         return ResponseEntity.ok(savedPhotos);
     }
-}
 
+    /**
+     * multipart 版本的批量同步，避免把所有图片以 Base64 字符串的形式一次性读入内存。
+     * 请求由一个名为 "archives" 的 JSON part (不含 Base64 字段的档案元数据列表)
+     * 和若干图片 part 组成：第 i 个档案的缩略图为 "thumbnail_i"，预览图为 "preview_i"。
+     * @param albumId 目标相册ID
+     * @param archives 档案元数据列表
+     * @param request multipart 请求，用于按名称获取图片 part
+     * @return 包含新创建的照片实体的列表
+     */
+    @PostMapping(value = "/sync/{albumId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<List<Photo>> syncArchivesMultipart(
+            @PathVariable Long albumId,
+            @RequestPart("archives") List<PhotoArchiveDto> archives,
+            MultipartHttpServletRequest request) {
+
+        List<Photo> savedPhotos = batchProcessService.processAndSaveMultipartArchives(albumId, archives, request.getFileMap());
+        return ResponseEntity.ok(savedPhotos);
+    }
+
+    /**
+     * 上传一张原图，由服务端生成缩略图、AI分析预览图和分享图。
+     * 适用于网页端和不具备本地缩放能力的 API 客户端。
+     * @param albumId 目标相册ID
+     * @param file 原图
+     * @return 新创建的照片实体
+     */
+    @PostMapping(value = "/original/{albumId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> uploadOriginal(@PathVariable Long albumId, @RequestParam("file") MultipartFile file) {
+        try {
+            Photo savedPhoto = batchProcessService.processAndSaveOriginal(albumId, file);
+            return ResponseEntity.ok(savedPhoto);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new MessageResponse("服务器繁忙，请稍后重试"));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("处理原图失败：" + e.getMessage()));
+        }
+    }
+
+    /**
+     * 为一批照片申请直传S3的预签名 PUT URL。
+     * 客户端按返回顺序把每张照片的缩略图/预览图 PUT 到对应URL (需带 Content-Type: image/jpeg，
+     * 提供了 SHA-256 时还需带 x-amz-checksum-sha256)，全部完成后调用 /direct/{albumId}/complete。
+     * @param albumId 目标相册ID
+     * @param files 每张照片的文件大小和可选的 SHA-256
+     * @return 每张照片的 Key 和上传URL
+     */
+    @PostMapping("/direct/{albumId}/presign")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> presignDirectUploads(@PathVariable Long albumId,
+                                                  @Valid @RequestBody List<@Valid PresignedUploadRequest> files) {
+        ResponseEntity<?> denied = checkAlbumOwner(albumId);
+        if (denied != null) {
+            return denied;
+        }
+        try {
+            List<PresignedUploadResponse> slots = batchProcessService.presignDirectUploads(albumId, files);
+            return ResponseEntity.ok(slots);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * 直传完成：确认S3上的对象后批量创建照片记录。
+     * 档案元数据与 /sync 接口相同，图片用 thumbnailKey / previewKey 引用预签名接口分配的 Key。
+     * @param albumId 目标相册ID
+     * @param archives 档案元数据列表
+     * @return 包含新创建的照片实体的列表 (校验失败的档案被跳过)
+     */
+    @PostMapping("/direct/{albumId}/complete")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> completeDirectUploads(@PathVariable Long albumId, @RequestBody List<PhotoArchiveDto> archives) {
+        ResponseEntity<?> denied = checkAlbumOwner(albumId);
+        if (denied != null) {
+            return denied;
+        }
+        List<Photo> savedPhotos = batchProcessService.completeDirectUploads(albumId, archives);
+        return ResponseEntity.ok(savedPhotos);
+    }
+
+    private ResponseEntity<?> checkAlbumOwner(Long albumId) {
+        UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Album album = albumRepository.findById(albumId)
+                .orElseThrow(() -> new ResourceNotFoundException("找不到相册 " + albumId));
+        if (!album.getUser().getId().equals(userDetails.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("无权访问此相册"));
+        }
+        return null;
+    }
+}
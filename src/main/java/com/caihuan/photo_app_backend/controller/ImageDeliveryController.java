@@ -0,0 +1,214 @@
+package com.caihuan.photo_app_backend.controller;
+
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import com.caihuan.photo_app_backend.services.ImageDiskCacheService;
+import com.caihuan.photo_app_backend.services.S3Service;
+import com.caihuan.photo_app_backend.services.ShareTokenService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 分享页面的图片分发
+ * 图片从本地磁盘缓存读取，支持 HTTP Range (单区间) 和条件请求。
+ * 先打开文件再写响应头，整个响应都通过这个已打开的 FileChannel 写出：
+ * 缓存淘汰删除文件时已打开的描述符仍然有效，不会出现响应头已发出、文件却读不到的情况。
+ * (Tomcat 的 sendfile 在处理方法返回后按文件名重新打开，不能保证这一点，所以不使用。)
+ */
+@RestController
+@RequestMapping("/api/public/image")
+@CrossOrigin(origins = "*", maxAge = 3600)
+@RequiredArgsConstructor
+public class ImageDeliveryController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDeliveryController.class);
+
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    // 地址中没有版本号或版本号已过期时，允许缓存但每次都要用 ETag 重新验证
+    private static final String REVALIDATE_CACHE_CONTROL = "public, no-cache";
+
+    private final ShareTokenService shareTokenService;
+    private final PhotoRepository photoRepository;
+    private final ImageDiskCacheService imageDiskCache;
+    private final S3Service s3Service;
+
+    /**
+     * 获取分享相册中一张照片的图片。
+     * @param variant thumb (缩略图) 或 share (分享大图)
+     * @param version 图片地址中的版本号，与当前对象一致时响应可以被永久缓存
+     */
+    @GetMapping("/{shareToken}/{photoId}/{variant}")
+    public void getImage(@PathVariable String shareToken, @PathVariable Long photoId, @PathVariable String variant,
+                         @RequestParam(name = "v", required = false) String version,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (shareTokenService.authorizePhoto(shareToken, photoId).isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String objectKey = findObjectKey(photoId, variant);
+        if (objectKey == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // 条件请求在读取缓存之前处理，命中时连磁盘都不用访问
+        String etag = ImageDiskCacheService.etagOf(objectKey);
+        String cacheControl = ImageDiskCacheService.versionOf(objectKey).equals(version)
+                ? IMMUTABLE_CACHE_CONTROL : REVALIDATE_CACHE_CONTROL;
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ImageDiskCacheService.CachedImage image = imageDiskCache.get(objectKey);
+            if (image == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            try {
+                writeFile(image, etag, request, response);
+                return;
+            } catch (NoSuchFileException e) {
+                // 文件在取得后、打开前被淘汰 (此时还没有写出任何响应头)，丢弃条目后重新下载一次
+                logger.debug("缓存文件 {} 已被淘汰，重新下载", image.path());
+                imageDiskCache.invalidate(objectKey);
+            }
+        }
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    private String findObjectKey(Long photoId, String variant) {
+        List<Object[]> rows = photoRepository.findDeliveryKeys(photoId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        String key = switch (variant) {
+            case "thumb" -> s3Service.getObjectKeyFromUrl((String) row[0]);
+            case "share" -> (String) row[1];
+            default -> null;
+        };
+        return key == null || key.isEmpty() ? null : key;
+    }
+
+    private void writeFile(ImageDiskCacheService.CachedImage image, String etag,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 文件不存在时在这里抛出 NoSuchFileException，调用方可以重试
+        try (FileChannel channel = FileChannel.open(image.path(), StandardOpenOption.READ)) {
+            writeFile(channel, image.size(), etag, request, response);
+        }
+    }
+
+    private void writeFile(FileChannel channel, long size, String etag,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long start = 0;
+        long end = size - 1;
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // If-Range 与当前 ETag 不一致时忽略 Range，返回完整内容
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+
+        long length = end - start + 1;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return;
+        }
+
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long position = start;
+        while (position <= end) {
+            position += channel.transferTo(position, end + 1 - position, out);
+        }
+    }
+
+    /**
+     * 解析单区间的 Range 请求头 (bytes=a-b / bytes=a- / bytes=-n)。
+     * @return {start, end}；多区间、格式不支持或语法无效 (如 bytes=5-3) 时返回空数组，按 RFC 9110 忽略 Range 返回完整内容；
+     *         区间无法满足 (起点超出文件) 时返回 null
+     */
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix < 0) {
+                    return new long[0];
+                }
+                if (suffix == 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                long last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (start < 0 || last < start) {
+                    return new long[0];
+                }
+                end = Math.min(last, size - 1);
+            }
+            if (start >= size) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
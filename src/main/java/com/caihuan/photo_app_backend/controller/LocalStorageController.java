@@ -0,0 +1,83 @@
+package com.caihuan.photo_app_backend.controller;
+
+import com.caihuan.photo_app_backend.payload.response.MessageResponse;
+import com.caihuan.photo_app_backend.services.LocalObjectStorage;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 本地文件系统存储的预签名地址 (photoapp.storage.type=local)
+ * 相当于 S3 的预签名 GET / PUT：地址中带有过期时间和 HMAC 签名，校验通过后读写对应的本地文件。
+ * GET 返回 Resource，由 Spring 处理 Range 请求。
+ */
+@RestController
+@RequestMapping(LocalObjectStorage.SERVE_PATH)
+@CrossOrigin(origins = "*", maxAge = 3600)
+@ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "local")
+@RequiredArgsConstructor
+public class LocalStorageController {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalStorageController.class);
+
+    private final LocalObjectStorage storage;
+
+    @GetMapping
+    public ResponseEntity<Resource> getObject(@RequestParam String key,
+                                              @RequestParam(defaultValue = "0") long expires,
+                                              @RequestParam(required = false) String signature) {
+        if (!storage.verify("GET", key, expires, -1, null, signature)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Path path;
+        try {
+            path = storage.pathOf(key);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!Files.isRegularFile(path)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .body(new FileSystemResource(path));
+    }
+
+    @PutMapping
+    public ResponseEntity<?> putObject(@RequestParam String key,
+                                       @RequestParam(defaultValue = "0") long expires,
+                                       @RequestParam(defaultValue = "-1") long length,
+                                       @RequestParam(required = false) String checksum,
+                                       @RequestParam(required = false) String signature,
+                                       HttpServletRequest request) throws IOException {
+        if (!storage.verify("PUT", key, expires, length, checksum, signature)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("签名无效或已过期"));
+        }
+        long contentLength = request.getContentLengthLong();
+        if (contentLength >= 0 && contentLength != length) {
+            return ResponseEntity.badRequest().body(new MessageResponse("内容长度 " + contentLength + " 与签名的长度 " + length + " 不一致"));
+        }
+        try (InputStream in = request.getInputStream()) {
+            storage.putVerified(key, in, length, checksum);
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("预签名上传 [{}] 被拒绝: {}", key, e.getMessage());
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage()));
+        }
+    }
+}
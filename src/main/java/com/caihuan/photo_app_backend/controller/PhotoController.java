@@ -5,27 +5,46 @@ import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
 import com.caihuan.photo_app_backend.payload.request.CloudAnalysisRequest;
 import com.caihuan.photo_app_backend.payload.response.ImageAnalysisResponse;
 import com.caihuan.photo_app_backend.payload.response.MessageResponse;
+import com.caihuan.photo_app_backend.payload.response.NearDuplicateGroupResponse;
+import com.caihuan.photo_app_backend.payload.response.PhotoPageResponse;
+import com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse;
 import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import com.caihuan.photo_app_backend.services.AlbumContentChangedEvent;
+import com.caihuan.photo_app_backend.services.ContentAddressedStorageService;
 import com.caihuan.photo_app_backend.services.ImageAnalysisService;
+import com.caihuan.photo_app_backend.services.PerceptualHashIndexService;
+import com.caihuan.photo_app_backend.services.PhotoQueryService;
+import com.caihuan.photo_app_backend.services.PhotoService;
 import com.caihuan.photo_app_backend.services.S3Service;
+import com.caihuan.photo_app_backend.services.S3StreamingUploadService;
 import com.caihuan.photo_app_backend.services.UserDetailsImpl;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api/photos")
@@ -36,53 +55,87 @@ public class PhotoController {
     private final S3Service s3Service;
     private final PhotoRepository photoRepository;
     private final ImageAnalysisService imageAnalysisService;
+    private final ContentAddressedStorageService contentAddressedStorage;
+    private final PerceptualHashIndexService perceptualHashIndex;
+    private final PhotoQueryService photoQueryService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PhotoService photoService;
+    private final S3StreamingUploadService streamingUploadService;
     private static final Logger logger = LoggerFactory.getLogger(PhotoController.class);
 
+    // 距离再大，64 位感知哈希就不再意味着“相似”了，同时也限制了单次查询的开销
+    private static final int MAX_NEAR_DUPLICATE_DISTANCE = 16;
+
+    // 流式上传精修大图的超时时间 (秒)
+    @Value("${photoapp.upload.final-timeout-seconds:600}")
+    private long finalUploadTimeoutSeconds;
+
+    /**
+     * 获取相册照片。不传 limit 时一次返回全部照片 (兼容旧客户端)；
+     * 传 limit 时按 sort (upload/filename) 键集分页，返回一页照片和下一页的游标。
+     */
     @GetMapping("/album/{albumId}")
-    public ResponseEntity<List<Photo>> getPhotosByAlbumId(@PathVariable Long albumId) {
-        List<Photo> photos = photoRepository.findByAlbumId(albumId);
-        photos.forEach(this::generatePresignedUrlsForPhoto);
-        return ResponseEntity.ok(photos);
+    public ResponseEntity<?> getPhotosByAlbumId(@PathVariable Long albumId,
+                                                @RequestParam(required = false) Integer limit,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(required = false) String sort) {
+        return listPhotos(albumId, false, limit, cursor, sort);
     }
 
     @GetMapping("/album/{albumId}/liked")
-    public ResponseEntity<List<Photo>> getLikedPhotosByAlbum(@PathVariable Long albumId) {
-        List<Photo> likedPhotos = photoRepository.findByAlbumIdAndIsLikedByClientTrue(albumId);
-        likedPhotos.forEach(this::generatePresignedUrlsForPhoto);
-        return ResponseEntity.ok(likedPhotos);
+    public ResponseEntity<?> getLikedPhotosByAlbum(@PathVariable Long albumId,
+                                                   @RequestParam(required = false) Integer limit,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(required = false) String sort) {
+        return listPhotos(albumId, true, limit, cursor, sort);
+    }
+
+    private ResponseEntity<?> listPhotos(Long albumId, boolean likedOnly, Integer limit, String cursor, String sort) {
+        if (limit == null) {
+            List<PhotoSummaryResponse> photos = photoQueryService.listAlbumPhotos(albumId, likedOnly);
+            photoQueryService.presignForOwner(photos);
+            return ResponseEntity.ok(photos);
+        }
+        try {
+            PhotoPageResponse page = photoQueryService.listAlbumPhotoPage(
+                    albumId, likedOnly, PhotoQueryService.PhotoSort.from(sort), cursor, limit);
+            photoQueryService.presignForOwner(page.getPhotos());
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * 查找相册内的近似重复/连拍照片组，用于快速挑片。
+     * @param maxDistance 允许的最大汉明距离 (0-16)，越大越宽松
+     */
+    @GetMapping("/album/{albumId}/near-duplicates")
+    public ResponseEntity<?> getNearDuplicates(@PathVariable Long albumId,
+                                               @RequestParam(defaultValue = "6") int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_NEAR_DUPLICATE_DISTANCE) {
+            return ResponseEntity.badRequest()
+                    .body(new MessageResponse("maxDistance 必须在 0 到 " + MAX_NEAR_DUPLICATE_DISTANCE + " 之间"));
+        }
+        List<NearDuplicateGroupResponse> groups = perceptualHashIndex.findNearDuplicateGroups(albumId, maxDistance);
+        return ResponseEntity.ok(groups);
     }
 
+    // 图片字节直接发给 Rekognition (服务端先缩小到分析尺寸)，不再上传临时文件到S3
     @PostMapping("/analyze-cloud")
     public ResponseEntity<?> analyzePhotoWithCloudAI(@Valid @RequestBody CloudAnalysisRequest request) {
-        String tempFileUrl = null;
-        String objectKey = null;
         try {
             byte[] imageBytes = Base64.getDecoder().decode(request.getImageBase64());
-            String tempFileName = "temp-analysis-" + UUID.randomUUID().toString() + ".jpg";
-            tempFileUrl = s3Service.uploadThumbnail(imageBytes, tempFileName);
-            objectKey = s3Service.getObjectKeyFromUrl(tempFileUrl);
-
-            if (objectKey == null) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new MessageResponse("无法上传临时文件到S3进行分析"));
-            }
-
-            ImageAnalysisResponse analysisResult = imageAnalysisService.analyzeImageFromS3(objectKey);
+            ImageAnalysisResponse analysisResult = imageAnalysisService.analyzeImageBytes(imageBytes);
             return ResponseEntity.ok(analysisResult);
 
         } catch (IllegalArgumentException e){
             return ResponseEntity.badRequest().body(new MessageResponse("无效的Base64字符串：" + e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new MessageResponse("服务器繁忙，请稍后重试"));
         } catch (IOException e) {
             logger.error("AI分析时发生IO错误", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new MessageResponse("AI分析时发生错误: " + e.getMessage()));
-        } finally {
-            if (tempFileUrl != null) {
-                try {
-                    s3Service.deleteFile(tempFileUrl);
-                    logger.info("已成功删除S3临时分析文件: {}", objectKey);
-                } catch (Exception e) {
-                    logger.error("删除S3临时分析文件失败: {}", objectKey, e);
-                }
-            }
         }
     }
 
@@ -103,11 +156,17 @@ public class PhotoController {
                 if (photo.getAnalysisImageKey() != null && !photo.getAnalysisImageKey().isEmpty()) {
                     keysToDelete.add(photo.getAnalysisImageKey());
                 }
+                if (photo.getShareImageKey() != null && !photo.getShareImageKey().isEmpty()) {
+                    keysToDelete.add(photo.getShareImageKey());
+                }
                 if (!keysToDelete.isEmpty()) {
-                    s3Service.deleteObjects(keysToDelete);
+                    // 共享的内容寻址对象只在最后一个引用消失时才会被删除
+                    contentAddressedStorage.releaseObjects(keysToDelete);
                 }
 
                 photoRepository.deleteById(photoId);
+                perceptualHashIndex.onPhotoRemoved(photo.getAlbum().getId(), photoId);
+                eventPublisher.publishEvent(new AlbumContentChangedEvent(photo.getAlbum().getId()));
                 return ResponseEntity.ok().body(new MessageResponse("照片删除成功"));
             } catch (Exception e) {
                 logger.error("删除照片 {} 失败", photoId, e);
@@ -121,74 +180,108 @@ public class PhotoController {
     @PostMapping("/{id}/upload-final")
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<?> uploadFinalPhoto(@PathVariable Long id, @RequestParam("file") MultipartFile file) {
-        UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Long userId = userDetails.getId();
+        ResponseEntity<?> denied = checkPhotoOwner(id);
+        if (denied != null) {
+            return denied;
+        }
 
-        Photo photo = photoRepository.findById(id)
-                .orElseThrow(() -> new ResourceNotFoundException("找不到ID为 " + id + " 的照片"));
+        S3StreamingUploadService.StreamingUpload upload = null;
+        try (InputStream in = file.getInputStream()) {
+            upload = streamingUploadService
+                    .uploadFinalVersion(in, file.getSize(), file.getOriginalFilename(), file.getContentType());
+            photoService.applyFinalVersion(id, upload.url().join());
+            return ResponseEntity.ok(new MessageResponse("精修大图上传成功！旧的预览图已清理。"));
+        } catch (Exception e) {
+            if (upload != null) {
+                streamingUploadService.abort(upload);
+            }
+            return finalUploadFailed(id, e);
+        }
+    }
 
-        if (!photo.getAlbum().getUser().getId().equals(userId)) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("无权修改此照片"));
+    /**
+     * 流式上传精修大图：请求体就是文件内容 (不是 multipart 表单)，文件名通过 X-File-Name 请求头传递 (URL 编码)。
+     * 请求体不经过 Tomcat 落盘，直接按分片并行上传到 S3；上传期间请求线程被释放，完成后再异步返回响应。
+     */
+    @PutMapping("/{id}/final")
+    @PreAuthorize("hasRole('USER')")
+    public DeferredResult<ResponseEntity<?>> streamFinalPhoto(@PathVariable Long id,
+                                                              @RequestHeader(value = "X-File-Name", required = false) String fileName,
+                                                              HttpServletRequest request) throws IOException {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(finalUploadTimeoutSeconds));
+        ResponseEntity<?> denied = checkPhotoOwner(id);
+        if (denied != null) {
+            result.setResult(denied);
+            return result;
         }
 
+        String originalFileName = fileName == null || fileName.isBlank()
+                ? "photo_" + id + ".jpg"
+                : URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+        long contentLength = request.getContentLengthLong();
+
+        S3StreamingUploadService.StreamingUpload upload;
         try {
-            List<String> keysToDelete = new ArrayList<>();
-            if (photo.getFinalStorageUrl() != null && !photo.getFinalStorageUrl().isEmpty()) {
-                keysToDelete.add(s3Service.getObjectKeyFromUrl(photo.getFinalStorageUrl()));
+            upload = streamingUploadService.uploadFinalVersion(request.getInputStream(),
+                    contentLength >= 0 ? contentLength : null, originalFileName, request.getContentType());
+        } catch (RejectedExecutionException e) {
+            result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new MessageResponse("上传繁忙，请稍后重试")));
+            return result;
+        }
+        // 上传完成和超时谁先到谁处理，避免超时删掉了已经写进照片记录的对象
+        AtomicBoolean settled = new AtomicBoolean();
+        upload.url().whenComplete((finalUrl, e) -> {
+            if (!settled.compareAndSet(false, true)) {
+                return;
             }
-            if (photo.getStorageUrl() != null && !photo.getStorageUrl().isEmpty()) {
-                keysToDelete.add(s3Service.getObjectKeyFromUrl(photo.getStorageUrl()));
+            if (e != null) {
+                streamingUploadService.abort(upload);
+                result.setResult(finalUploadFailed(id, e));
+                return;
             }
-            if (photo.getAnalysisImageKey() != null && !photo.getAnalysisImageKey().isEmpty()) {
-                keysToDelete.add(photo.getAnalysisImageKey());
+            try {
+                photoService.applyFinalVersion(id, finalUrl);
+                result.setResult(ResponseEntity.ok(new MessageResponse("精修大图上传成功！旧的预览图已清理。")));
+            } catch (RuntimeException applyError) {
+                // 照片在上传期间被删除等情况，新对象没有记录引用，需要删掉
+                streamingUploadService.abort(upload);
+                result.setResult(finalUploadFailed(id, applyError));
             }
-
-            if (!keysToDelete.isEmpty()) {
-                s3Service.deleteObjects(keysToDelete);
-                logger.info("已为照片 {} 批量删除 {} 个旧文件。", id, keysToDelete.size());
+        });
+        result.onTimeout(() -> {
+            if (settled.compareAndSet(false, true)) {
+                streamingUploadService.abort(upload);
+                result.setResult(ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(new MessageResponse("上传超时")));
             }
+        });
+        return result;
+    }
 
-            String finalUrl = s3Service.uploadFinalVersion(file);
-
-            photo.setFinalStorageUrl(finalUrl);
-            photo.setStorageUrl(null);
-            photo.setAnalysisImageKey(null);
-            photo.setFinalized(true);
-            photoRepository.save(photo);
+    /**
+     * 检查当前用户是否是照片所在相册的所有者，不是时返回 403 响应，是则返回 null。
+     */
+    private ResponseEntity<?> checkPhotoOwner(Long photoId) {
+        UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userDetails.getId();
 
-            return ResponseEntity.ok(new MessageResponse("精修大图上传成功！旧的预览图已清理。"));
+        Photo photo = photoRepository.findById(photoId)
+                .orElseThrow(() -> new ResourceNotFoundException("找不到ID为 " + photoId + " 的照片"));
 
-        } catch (Exception e) {
-            logger.error("上传精修图失败，照片ID: {}", id, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new MessageResponse("上传失败：" + e.getMessage()));
+        if (!photo.getAlbum().getUser().getId().equals(userId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("无权修改此照片"));
         }
+        return null;
     }
 
-    /**
-     * 【核心修复】辅助方法，为单张照片的所有URL生成预签名链接
-     */
-    private void generatePresignedUrlsForPhoto(Photo photo) {
-        // 1. 缩略图
-        String thumbnailUrl = photo.getStorageUrl();
-        if (thumbnailUrl != null && !thumbnailUrl.isEmpty()) {
-            String objectKey = s3Service.getObjectKeyFromUrl(thumbnailUrl);
-            if (objectKey != null) {
-                photo.setStorageUrl(s3Service.generatePresignedUrl(objectKey));
-            }
+    private ResponseEntity<?> finalUploadFailed(Long photoId, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new MessageResponse("上传繁忙，请稍后重试"));
         }
-        // 2. 高清最终图
-        String finalUrl = photo.getFinalStorageUrl();
-        if (finalUrl != null && !finalUrl.isEmpty()) {
-            String objectKey = s3Service.getObjectKeyFromUrl(finalUrl);
-            if (objectKey != null) {
-                photo.setFinalStorageUrl(s3Service.generatePresignedUrl(objectKey));
-            }
-        }
-        // 3. 中尺寸预览图
-        String analysisKey = photo.getAnalysisImageKey();
-        if (analysisKey != null && !analysisKey.isEmpty()) {
-            photo.setPreviewUrl(s3Service.generatePresignedUrl(analysisKey));
+        if (cause instanceof ResourceNotFoundException) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(cause.getMessage()));
         }
+        logger.error("上传精修图失败，照片ID: {}", photoId, cause);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new MessageResponse("上传失败：" + cause.getMessage()));
     }
 }
-
@@ -2,21 +2,30 @@ package com.caihuan.photo_app_backend.controller;
 
 import com.caihuan.photo_app_backend.entity.Album;
 import com.caihuan.photo_app_backend.entity.Comment;
-import com.caihuan.photo_app_backend.entity.Photo;
 import com.caihuan.photo_app_backend.payload.request.CommentRequest;
+import com.caihuan.photo_app_backend.payload.response.PhotoPageResponse;
+import com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse;
 import com.caihuan.photo_app_backend.payload.response.SharedAlbumResponse;
 import com.caihuan.photo_app_backend.repository.AlbumRepository;
 import com.caihuan.photo_app_backend.repository.CommentRepository;
 import com.caihuan.photo_app_backend.repository.PhotoRepository;
-import com.caihuan.photo_app_backend.services.S3Service; // 【修复】导入 S3Service
+import com.caihuan.photo_app_backend.services.AlbumContentChangedEvent;
+import com.caihuan.photo_app_backend.services.CommentQueryService;
+import com.caihuan.photo_app_backend.services.PhotoLikeService;
+import com.caihuan.photo_app_backend.services.PhotoQueryService;
+import com.caihuan.photo_app_backend.services.ShareTokenService;
+import com.caihuan.photo_app_backend.services.SharedAlbumCacheService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiFunction;
 
 @RestController
 @RequestMapping("/api/public")
@@ -28,109 +37,157 @@ public class PublicController {
     private final AlbumRepository albumRepository;
     private final PhotoRepository photoRepository;
     private final CommentRepository commentRepository;
-    private final S3Service s3Service; // 【修复】注入 S3Service
+    private final PhotoQueryService photoQueryService;
+    private final SharedAlbumCacheService sharedAlbumCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ShareTokenService shareTokenService;
+    private final PhotoLikeService photoLikeService;
+    private final CommentQueryService commentQueryService;
+
+    private static final String VIEWER_ID_HEADER = "X-Viewer-Id";
 
     // 1. 获取分享的相册及其照片
+    // 传 limit 时按 sort (upload/filename) 键集分页，响应中的 nextCursor 用于获取下一页
+    // 组装好的响应按 (令牌, 分页参数) 缓存，相册内容变化时失效
     @GetMapping("/album/{shareToken}")
-    public ResponseEntity<?> getAlbumByShareToken(@PathVariable String shareToken) {
+    public ResponseEntity<?> getAlbumByShareToken(@PathVariable String shareToken,
+                                                  @RequestParam(required = false) Integer limit,
+                                                  @RequestParam(required = false) String cursor,
+                                                  @RequestParam(required = false) String sort) {
+        SharedAlbumCacheService.CacheKey cacheKey = new SharedAlbumCacheService.CacheKey(shareToken, limit, cursor, sort);
+        SharedAlbumResponse response;
+        try {
+            response = sharedAlbumCache.get(cacheKey, tracker -> buildSharedAlbumResponse(shareToken, limit, cursor, sort, tracker));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (response == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    private SharedAlbumResponse buildSharedAlbumResponse(String shareToken, Integer limit, String cursor, String sort,
+                                                         SharedAlbumCacheService.VersionTracker tracker) {
         Optional<Album> albumData = albumRepository.findByShareToken(shareToken);
-        if (albumData.isPresent()) {
-            Album album = albumData.get();
-            List<Photo> photos = photoRepository.findByAlbumId(album.getId());
-
-            // 【修复 Bug 1】为分享页面的照片生成预签名 URL，否则客户无法看到图片
-            photos.forEach(photo -> {
-                String originalUrl = photo.getStorageUrl();
-                if (originalUrl != null && !originalUrl.isEmpty()) {
-                    String objectKey = s3Service.getObjectKeyFromUrl(originalUrl);
-                    if (objectKey != null) {
-                        String presignedUrl = s3Service.generatePresignedUrl(objectKey);
-                        photo.setStorageUrl(presignedUrl);
-                    }
-                }
-            });
-
-            return ResponseEntity.ok(new SharedAlbumResponse(album, photos));
+        if (albumData.isEmpty()) {
+            return null;
+        }
+        Album album = albumData.get();
+        tracker.recordVersion(album.getId());
+
+        List<PhotoSummaryResponse> photos;
+        String nextCursor = null;
+        if (limit == null) {
+            photos = photoQueryService.listAlbumPhotos(album.getId(), false);
         } else {
-            return ResponseEntity.notFound().build();
+            PhotoPageResponse page = photoQueryService.listAlbumPhotoPage(
+                    album.getId(), false, PhotoQueryService.PhotoSort.from(sort), cursor, limit);
+            photos = page.getPhotos();
+            nextCursor = page.getNextCursor();
         }
+
+        photoQueryService.attachDeliveryUrls(shareToken, photos);
+        // 【修复 Bug 1】为分享页面的照片生成预签名 URL，否则客户无法看到图片
+        // 批量签名缩略图和分享图 (命中缓存时同一窗口内URL保持不变)
+        photoQueryService.presignForShare(photos);
+
+        return new SharedAlbumResponse(album, photos, nextCursor);
     }
 
     // 2. 客户点赞或取消点赞照片
+    // 访客由请求头 X-Viewer-Id 标识 (客户端生成并保存)，没有时所有访客共用一个身份
     @PostMapping("/like/{shareToken}/{photoId}")
-    public ResponseEntity<?> toggleLikePhoto(@PathVariable String shareToken, @PathVariable Long photoId) {
-        if (!isPhotoInSharedAlbum(shareToken, photoId)) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("无权访问此照片");
-        }
+    public ResponseEntity<?> toggleLikePhoto(@PathVariable String shareToken, @PathVariable Long photoId,
+                                             @RequestHeader(value = VIEWER_ID_HEADER, required = false) String viewerId) {
+        return applyLike(shareToken, photoId, viewerId, photoLikeService::toggle);
+    }
 
-        Optional<Photo> photoData = photoRepository.findById(photoId);
-        if (photoData.isPresent()) {
-            Photo photo = photoData.get();
-            photo.setLikedByClient(!photo.isLikedByClient());
-            Photo updatedPhoto = photoRepository.save(photo);
-            return ResponseEntity.ok(updatedPhoto);
-        } else {
+    @PutMapping("/like/{shareToken}/{photoId}")
+    public ResponseEntity<?> likePhoto(@PathVariable String shareToken, @PathVariable Long photoId,
+                                       @RequestHeader(value = VIEWER_ID_HEADER, required = false) String viewerId) {
+        return applyLike(shareToken, photoId, viewerId, photoLikeService::like);
+    }
+
+    @DeleteMapping("/like/{shareToken}/{photoId}")
+    public ResponseEntity<?> unlikePhoto(@PathVariable String shareToken, @PathVariable Long photoId,
+                                         @RequestHeader(value = VIEWER_ID_HEADER, required = false) String viewerId) {
+        return applyLike(shareToken, photoId, viewerId, photoLikeService::unlike);
+    }
+
+    // 当前访客在这个分享相册中点赞过的照片ID
+    @GetMapping("/likes/{shareToken}")
+    public ResponseEntity<?> getViewerLikes(@PathVariable String shareToken,
+                                            @RequestHeader(value = VIEWER_ID_HEADER, required = false) String viewerId) {
+        Optional<Long> albumId = shareTokenService.resolveAlbumId(shareToken);
+        if (albumId.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.ok(photoLikeService.findLikedPhotoIds(albumId.get(), PhotoLikeService.normalizeViewerId(viewerId)));
     }
 
-    // 3. 获取一张照片下的所有评论
+    private ResponseEntity<?> applyLike(String shareToken, Long photoId, String viewerId,
+                                        BiFunction<Long, String, PhotoLikeService.LikeResult> operation) {
+        Optional<Long> albumId = shareTokenService.authorizePhoto(shareToken, photoId);
+        if (albumId.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("无权访问此照片");
+        }
+        PhotoLikeService.LikeResult result = operation.apply(photoId, PhotoLikeService.normalizeViewerId(viewerId));
+        eventPublisher.publishEvent(new AlbumContentChangedEvent(albumId.get()));
+        return ResponseEntity.ok(Map.of(
+                "id", photoId,
+                "liked", result.liked(),
+                "likeCount", result.likeCount(),
+                "likedByClient", result.likeCount() > 0));
+    }
+
+    // 3. 获取一张照片下的评论
+    // 不传 limit 时返回全部评论 (兼容旧客户端)；传 limit 时按发表时间键集分页
     @GetMapping("/comments/{shareToken}/{photoId}")
-    public ResponseEntity<?> getCommentsForPhoto(@PathVariable String shareToken, @PathVariable Long photoId) {
-        if (!isPhotoInSharedAlbum(shareToken, photoId)) {
+    public ResponseEntity<?> getCommentsForPhoto(@PathVariable String shareToken, @PathVariable Long photoId,
+                                                 @RequestParam(required = false) Integer limit,
+                                                 @RequestParam(required = false) String cursor) {
+        if (shareTokenService.authorizePhoto(shareToken, photoId).isEmpty()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("无权访问此照片的评论");
         }
-        List<Comment> comments = commentRepository.findByPhotoId(photoId);
-        return ResponseEntity.ok(comments);
+        if (limit == null) {
+            List<Comment> comments = commentRepository.findByPhotoId(photoId);
+            return ResponseEntity.ok(comments);
+        }
+        try {
+            return ResponseEntity.ok(commentQueryService.listPhotoComments(photoId, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // 3.1 获取整个分享相册每张照片的评论数 (照片ID -> 评论数)，用于显示评论角标
+    // 一次分组查询代替逐张照片请求评论列表
+    @GetMapping("/comments/{shareToken}")
+    public ResponseEntity<?> getCommentCountsForAlbum(@PathVariable String shareToken) {
+        Optional<Long> albumId = shareTokenService.resolveAlbumId(shareToken);
+        if (albumId.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(commentQueryService.countByAlbum(albumId.get()));
     }
 
     // 4. 为一张照片添加评论
     @PostMapping("/comments/{shareToken}/{photoId}")
     public ResponseEntity<?> addCommentToPhoto(@PathVariable String shareToken, @PathVariable Long photoId, @Valid @RequestBody CommentRequest commentRequest) {
-        if (!isPhotoInSharedAlbum(shareToken, photoId)) {
+        Optional<Long> albumId = shareTokenService.authorizePhoto(shareToken, photoId);
+        if (albumId.isEmpty()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("无权评论此照片");
         }
 
-        // 1. 首先，我们需要从数据库中获取完整的 Photo 对象
-        Optional<Photo> photoOpt = photoRepository.findById(photoId);
-        if (photoOpt.isEmpty()) {
-            // 如果照片不存在，就不能评论，返回一个“未找到”的错误
-            return ResponseEntity.notFound().build();
-        }
-
-        // 2. 创建新的 Comment 对象
+        // 权限校验已确认照片存在，这里只需要一个引用，不必再查询照片
         Comment comment = new Comment();
-
-        // 3. 【核心修改】直接设置完整的 Photo 对象，而不是 photoId
-        comment.setPhoto(photoOpt.get());
+        comment.setPhoto(photoRepository.getReferenceById(photoId));
         // commenterName 在您的 CommentRequest DTO 中可能叫 commenterName 或 contentName
         comment.setCommenterName(commentRequest.getCommenterName());
         comment.setContent(commentRequest.getContent());
         Comment savedComment = commentRepository.save(comment);
+        eventPublisher.publishEvent(new AlbumContentChangedEvent(albumId.get()));
         return ResponseEntity.ok(savedComment);
     }
-
-
-    /**
-     * 这是一个核心的安全检查辅助方法。
-     * 它验证给定的photoId是否真的属于由shareToken指定的相册。
-     */
-    private boolean isPhotoInSharedAlbum(String shareToken, Long photoId) {
-        Optional<Album> albumOpt = albumRepository.findByShareToken(shareToken);
-        if (albumOpt.isEmpty()) {
-            return false;
-        }
-        Optional<Photo> photoOpt = photoRepository.findById(photoId);
-        if (photoOpt.isEmpty()) {
-            return false;
-        }
-
-        Album photoAlbum = photoOpt.get().getAlbum();
-        if (photoAlbum == null) {
-            return false;
-        }
-
-        // 【修复 Bug 2】比较照片所属相册的ID和令牌对应相册的ID
-        return photoAlbum.getId().equals(albumOpt.get().getId());
-    }
-}
\ No newline at end of file
+}
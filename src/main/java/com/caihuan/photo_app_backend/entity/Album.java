@@ -12,7 +12,9 @@ import java.util.List;
 import java.util.UUID;
 
 @Entity
-@Table(name = "albums")
+@Table(name = "albums", indexes = {
+        @Index(name = "idx_albums_share_token", columnList = "share_token", unique = true)
+})
 @Data
 @NoArgsConstructor
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
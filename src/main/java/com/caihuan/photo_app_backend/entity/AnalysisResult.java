@@ -0,0 +1,33 @@
+package com.caihuan.photo_app_backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 按图片内容缓存的 AI 分析结果
+ * 以分析图字节的 SHA-256 为主键，同样的图片再次分析时直接复用，不再调用 Rekognition。
+ */
+@Entity
+@Table(name = "analysis_results")
+@Data
+@NoArgsConstructor
+public class AnalysisResult {
+
+    // 分析图内容的 SHA-256 (十六进制小写)
+    @Id
+    @Column(name = "content_sha256", length = 64)
+    private String contentSha256;
+
+    // ImageAnalysisResponse 的 JSON
+    @Lob
+    @Column(name = "result_json", nullable = false)
+    private String resultJson;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+}
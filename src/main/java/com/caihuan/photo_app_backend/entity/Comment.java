@@ -7,7 +7,10 @@ import lombok.NoArgsConstructor;
 import java.time.Instant;
 
 @Entity
-@Table(name = "comments")
+// 按照片分页读取评论 (photo_id, created_at, id) 时直接走这个索引
+@Table(name = "comments", indexes = {
+        @Index(name = "idx_comments_photo_created", columnList = "photo_id, created_at, id")
+})
 @Data
 @NoArgsConstructor
 public class Comment {
@@ -10,13 +10,19 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "photos")
+// 按上传顺序的分页直接使用 album_id 外键索引 (InnoDB 二级索引隐含主键)；按文件名分页需要单独的索引
+@Table(name = "photos", indexes = {
+        @Index(name = "idx_photos_album_file_name", columnList = "album_id, original_file_name, id")
+})
 @Data
 @NoArgsConstructor
 public class Photo {
 
+    // 使用序列 (MySQL 下由 Hibernate 以 photos_seq 表模拟) 而不是 IDENTITY，
+    // 一次预分配一段ID，批量同步时 INSERT 才能按 JDBC 批次合并
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "photo_seq")
+    @SequenceGenerator(name = "photo_seq", sequenceName = "photos_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -24,7 +30,12 @@ public class Photo {
     private Album album;
 
     private String storageUrl;
+    // 点赞状态和点赞总数只通过原子 UPDATE 修改 (见 PhotoRepository)，
+    // updatable = false 防止保存其他字段时用内存中的旧值覆盖并发的点赞
+    @Column(name = "is_liked_by_client", updatable = false)
     private boolean isLikedByClient = false;
+    @Column(name = "like_count", nullable = false, updatable = false)
+    private int likeCount = 0;
     private boolean isFinalized = false;
     private String finalStorageUrl;
     private String originalFileName;
@@ -40,6 +51,10 @@ public class Photo {
     @Lob
     private String aiDetectedText;
 
+    // 分析时是否检测到了整行文字，重新分类时使用；旧数据为 null
+    @Column(name = "text_line_detected")
+    private Boolean textLineDetected;
+
     @ElementCollection(fetch = FetchType.EAGER)
     private List<String> aiDominantColors;
 
@@ -58,12 +73,27 @@ public class Photo {
     @Column(name = "analysis_image_key")
     private String analysisImageKey;
 
+    // 分析预览图内容的 SHA-256 (十六进制)，上传时计算，作为分析结果缓存的键，分析时不必再下载图片
+    @Column(name = "analysis_image_sha256", length = 64)
+    private String analysisImageSha256;
+
+    // 服务端渲染的分享图 (较大尺寸)，只有通过原图上传的照片才有
+    @Column(name = "share_image_key")
+    private String shareImageKey;
+
+    // 客户端计算的感知哈希 (pHash)，用于查找近似重复/连拍照片
+    @Column(name = "perceptual_hash", length = 64)
+    private String perceptualHash;
+
     // =======================================================
     // ==           【新增】一个临时的、非数据库字段          ==
     // =======================================================
     @Transient // 这个注解告诉JPA不要为这个字段在数据库中创建列
     private String previewUrl;
 
+    @Transient
+    private String shareUrl;
+
     // =======================================================
     // ==           【核心修改】添加级联删除设置            ==
     // =======================================================
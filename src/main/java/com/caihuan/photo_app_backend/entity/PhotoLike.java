@@ -0,0 +1,42 @@
+package com.caihuan.photo_app_backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.Instant;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 分享页访客对照片的点赞记录
+ * 每个访客 (由客户端生成的访客ID标识) 对同一张照片最多一条记录，由唯一约束保证。
+ * 照片删除时由数据库级联删除点赞记录。
+ */
+@Entity
+@Table(name = "photo_likes", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_photo_likes_photo_viewer", columnNames = {"photo_id", "viewer_id"})
+})
+@Data
+@NoArgsConstructor
+public class PhotoLike {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "photo_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @ToString.Exclude
+    private Photo photo;
+
+    @Column(name = "viewer_id", nullable = false, length = 64)
+    private String viewerId;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+}
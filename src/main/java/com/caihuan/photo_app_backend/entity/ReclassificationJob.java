@@ -0,0 +1,67 @@
+package com.caihuan.photo_app_backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 照片批量重新分类任务及其检查点
+ * 任务按照片ID从小到大分块处理，lastPhotoId 之前 (含) 的照片都已处理完成，
+ * 任务中断后从 lastPhotoId 之后继续即可。
+ */
+@Entity
+@Table(name = "reclassification_jobs")
+@Data
+@NoArgsConstructor
+public class ReclassificationJob {
+
+    public enum Status {
+        RUNNING,
+        // 被手动停止或因应用重启而中断，可以继续
+        PAUSED,
+        COMPLETED,
+        FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    // 任务开始 (或继续) 时分类规则的版本号
+    @Column(name = "rule_version")
+    private long ruleVersion;
+
+    // 检查点：ID 不大于它的照片都已处理
+    @Column(name = "last_photo_id", nullable = false)
+    private long lastPhotoId;
+
+    @Column(name = "total_photos")
+    private long totalPhotos;
+
+    @Column(name = "processed_photos")
+    private long processedPhotos;
+
+    // 分类发生变化并被写回的照片数
+    @Column(name = "changed_photos")
+    private long changedPhotos;
+
+    @Column(name = "started_at")
+    private Instant startedAt;
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+}
@@ -0,0 +1,30 @@
+package com.caihuan.photo_app_backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 按内容寻址存储的S3对象及其引用计数
+ * 同一份图片内容只在S3中存一份，被多少张照片引用就记多少次，计数归零时才真正删除。
+ */
+@Entity
+@Table(name = "stored_objects")
+@Data
+@NoArgsConstructor
+public class StoredObject {
+
+    @Id
+    @Column(name = "object_key", length = 512)
+    private String objectKey;
+
+    @Column(name = "ref_count", nullable = false)
+    private long refCount;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+}
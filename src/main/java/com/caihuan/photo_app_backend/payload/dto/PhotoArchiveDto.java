@@ -1,6 +1,7 @@
 package com.caihuan.photo_app_backend.payload.dto;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 // 这个注解很有用，可以防止因为前端多传了未知字段而后端报错
@@ -12,6 +13,8 @@ public class PhotoArchiveDto {
     private String originalFileName;
     private String localCategory;
     private String fileHash;
+    // Lombok 生成的 setPHash 会被 Jackson 识别为 "phash"，这里显式指定 JSON 字段名
+    @JsonProperty("pHash")
     private String pHash;
 
     // 质量评分
@@ -22,4 +25,8 @@ public class PhotoArchiveDto {
     // 图片数据 (在“最终稿”模式下可以为 null)
     private String thumbnailBase64;
     private String previewBase64;
+
+    // 客户端直传S3后的对象 Key (由预签名接口分配)
+    private String thumbnailKey;
+    private String previewKey;
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.caihuan.photo_app_backend.payload.request;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 申请直传S3的预签名URL时，一张照片的文件信息
+ */
+@Data
+public class PresignedUploadRequest {
+    // 原始文件名
+    @NotBlank
+    private String originalFileName;
+
+    // 缩略图大小 (字节)
+    @NotNull
+    @Positive
+    private Long thumbnailSize;
+
+    // 缩略图 SHA-256 的 Base64 编码 (可选，提供时 S3 会校验上传内容)
+    private String thumbnailSha256;
+
+    // AI分析预览图大小 (字节)，不上传预览图时为 null
+    @Positive
+    private Long previewSize;
+
+    // 预览图 SHA-256 的 Base64 编码 (可选)
+    private String previewSha256;
+}
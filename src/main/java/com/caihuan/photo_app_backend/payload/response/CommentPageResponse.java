@@ -0,0 +1,15 @@
+package com.caihuan.photo_app_backend.payload.response;
+
+import com.caihuan.photo_app_backend.entity.Comment;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class CommentPageResponse {
+    private List<Comment> comments;
+    // 下一页的游标，没有更多评论时为 null
+    private String nextCursor;
+}
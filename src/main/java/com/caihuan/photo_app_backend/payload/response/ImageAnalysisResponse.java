@@ -1,11 +1,15 @@
 package com.caihuan.photo_app_backend.payload.response;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import java.util.List;
 
 @Data
 @Builder
+@NoArgsConstructor // 分析结果缓存需要从 JSON 还原
+@AllArgsConstructor
 public class ImageAnalysisResponse {
     // 【升级】返回一个分类列表
     private List<String> categories;
@@ -13,6 +17,8 @@ public class ImageAnalysisResponse {
     // --- 原有字段 ---
     private List<String> labels;
     private String detectedText;
+    // 是否检测到了整行文字 (分类规则 requireTextLine 使用)
+    private Boolean textLineDetected;
     // private List<String> dominantColors; // 新的Service中已移除，可以注释掉
 
     // --- 来自 Rekognition 的新字段 ---
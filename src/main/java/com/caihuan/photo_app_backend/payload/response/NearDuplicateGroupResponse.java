@@ -0,0 +1,15 @@
+package com.caihuan.photo_app_backend.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class NearDuplicateGroupResponse {
+    // 组内照片ID，按上传顺序排列
+    private List<Long> photoIds;
+    // 组内照片在上传顺序中是否连续 (通常是同一次连拍)
+    private boolean burst;
+}
@@ -0,0 +1,14 @@
+package com.caihuan.photo_app_backend.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class PhotoPageResponse {
+    private List<PhotoSummaryResponse> photos;
+    // 下一页的游标，没有更多照片时为 null
+    private String nextCursor;
+}
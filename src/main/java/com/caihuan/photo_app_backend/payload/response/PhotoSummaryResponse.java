@@ -0,0 +1,63 @@
+package com.caihuan.photo_app_backend.payload.response;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 照片列表 (网格) 使用的精简视图。
+ * 只包含列表页需要的字段，字段名与 Photo 实体序列化后的 JSON 保持一致；
+ * 不包含识别出的文字、评论等大字段/关联。
+ */
+@Data
+@NoArgsConstructor
+public class PhotoSummaryResponse {
+    private Long id;
+    private String storageUrl;
+    private String finalStorageUrl;
+    private String analysisImageKey;
+    private String shareImageKey;
+    private String originalFileName;
+    private boolean likedByClient;
+    private int likeCount;
+    private boolean finalized;
+    private String localCategory;
+    private boolean cloudAnalyzed;
+    private Integer faceCount;
+    private boolean allFacesSmiling;
+    private boolean allEyesOpen;
+
+    private List<String> categories = new ArrayList<>();
+    private List<String> aiLabels = new ArrayList<>();
+
+    // 预签名后的链接
+    private String previewUrl;
+    private String shareUrl;
+
+    // 分享页面经由本服务器磁盘缓存分发的图片地址 (相对路径)
+    private String thumbnailDeliveryUrl;
+    private String shareDeliveryUrl;
+
+    // 供 JPQL 构造表达式使用，参数顺序与 PhotoRepository 中的查询一致
+    public PhotoSummaryResponse(Long id, String storageUrl, String finalStorageUrl, String analysisImageKey,
+                                String shareImageKey, String originalFileName, boolean likedByClient,
+                                int likeCount, boolean finalized, String localCategory, boolean cloudAnalyzed, Integer faceCount,
+                                boolean allFacesSmiling, boolean allEyesOpen) {
+        this.id = id;
+        this.storageUrl = storageUrl;
+        this.finalStorageUrl = finalStorageUrl;
+        this.analysisImageKey = analysisImageKey;
+        this.shareImageKey = shareImageKey;
+        this.originalFileName = originalFileName;
+        this.likedByClient = likedByClient;
+        this.likeCount = likeCount;
+        this.finalized = finalized;
+        this.localCategory = localCategory;
+        this.cloudAnalyzed = cloudAnalyzed;
+        this.faceCount = faceCount;
+        this.allFacesSmiling = allFacesSmiling;
+        this.allEyesOpen = allEyesOpen;
+    }
+}
@@ -0,0 +1,20 @@
+package com.caihuan.photo_app_backend.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 一张照片的直传地址，顺序与请求一致
+ */
+@Data
+@AllArgsConstructor
+public class PresignedUploadResponse {
+    // 缩略图的 Key 和预签名 PUT URL
+    private String thumbnailKey;
+    private String thumbnailUploadUrl;
+    // 预览图的 Key 和预签名 PUT URL，没有申请预览图时为 null
+    private String previewKey;
+    private String previewUploadUrl;
+}
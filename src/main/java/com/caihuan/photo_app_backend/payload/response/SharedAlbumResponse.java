@@ -1,7 +1,6 @@
 package com.caihuan.photo_app_backend.payload.response;
 
 import com.caihuan.photo_app_backend.entity.Album;
-import com.caihuan.photo_app_backend.entity.Photo;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
@@ -11,5 +10,7 @@ import java.util.List;
 @AllArgsConstructor
 public class SharedAlbumResponse {
     private Album album;
-    private List<Photo> photos;
+    private List<PhotoSummaryResponse> photos;
+    // 分页请求时下一页的游标，没有更多照片或未分页时为 null
+    private String nextCursor;
 }
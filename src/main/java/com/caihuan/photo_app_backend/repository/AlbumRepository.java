@@ -2,6 +2,8 @@ package com.caihuan.photo_app_backend.repository;
 
 import com.caihuan.photo_app_backend.entity.Album;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -18,4 +20,8 @@ public interface AlbumRepository extends JpaRepository<Album, Long> {
 
     //根据token查找相册，用于客户通过分享链接访问。
     Optional<Album> findByShareToken(String shareToken);
+
+    // 只取分享令牌对应的相册ID，用于公开接口的权限校验
+    @Query("SELECT a.id FROM Album a WHERE a.shareToken = :shareToken")
+    Optional<Long> findIdByShareToken(@Param("shareToken") String shareToken);
 }
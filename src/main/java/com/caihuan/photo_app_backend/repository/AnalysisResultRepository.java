@@ -0,0 +1,12 @@
+package com.caihuan.photo_app_backend.repository;
+
+import com.caihuan.photo_app_backend.entity.AnalysisResult;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description AI 分析结果缓存仓库
+ */
+public interface AnalysisResultRepository extends JpaRepository<AnalysisResult, String> {
+}
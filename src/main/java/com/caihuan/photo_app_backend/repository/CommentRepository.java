@@ -1,8 +1,12 @@
 package com.caihuan.photo_app_backend.repository;
 
 import com.caihuan.photo_app_backend.entity.Comment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -14,4 +18,17 @@ public interface CommentRepository extends JpaRepository<Comment, Long> {
 
     // 根据照片ID查找该照片下的所有评论。
     List<Comment> findByPhotoId(Long photoId);
+
+    // 一条分组查询统计相册中每张照片的评论数 (photoId, count)，没有评论的照片不出现在结果中
+    @Query("SELECT c.photo.id, COUNT(c) FROM Comment c WHERE c.photo.album.id = :albumId GROUP BY c.photo.id")
+    List<Object[]> countByAlbumId(@Param("albumId") Long albumId);
+
+    // 按 (创建时间, ID) 的键集分页读取一张照片的评论
+    @Query("SELECT c FROM Comment c WHERE c.photo.id = :photoId "
+            + "AND (c.createdAt > :afterCreatedAt OR c.createdAt = :afterCreatedAt AND c.id > :afterId) "
+            + "ORDER BY c.createdAt, c.id")
+    List<Comment> findPageByPhotoId(@Param("photoId") Long photoId,
+                                    @Param("afterCreatedAt") Instant afterCreatedAt,
+                                    @Param("afterId") long afterId,
+                                    Pageable pageable);
 }
@@ -0,0 +1,32 @@
+package com.caihuan.photo_app_backend.repository;
+
+import com.caihuan.photo_app_backend.entity.PhotoLike;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 点赞记录仓库
+ */
+public interface PhotoLikeRepository extends JpaRepository<PhotoLike, Long> {
+
+    // 原子地添加点赞：已存在时什么也不做，返回 1 表示本次新增
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO photo_likes (photo_id, viewer_id, created_at) VALUES (:photoId, :viewerId, NOW())",
+            nativeQuery = true)
+    int insertIfAbsent(@Param("photoId") Long photoId, @Param("viewerId") String viewerId);
+
+    // 原子地取消点赞，返回 1 表示本次删除
+    @Modifying
+    @Query("DELETE FROM PhotoLike l WHERE l.photo.id = :photoId AND l.viewerId = :viewerId")
+    int deleteByPhotoIdAndViewerId(@Param("photoId") Long photoId, @Param("viewerId") String viewerId);
+
+    // 某个访客在相册中点赞过的照片ID
+    @Query("SELECT l.photo.id FROM PhotoLike l WHERE l.viewerId = :viewerId AND l.photo.album.id = :albumId")
+    List<Long> findLikedPhotoIds(@Param("albumId") Long albumId, @Param("viewerId") String viewerId);
+}
@@ -1,9 +1,16 @@
 package com.caihuan.photo_app_backend.repository;
 
 import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * @Author nanako
@@ -21,4 +28,90 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     // 【新增】根据相册ID和分析状态查找照片
     List<Photo> findByAlbumIdAndCloudAnalyzedIsFalse(Long albumId);
 
+    // 照片是否属于指定相册 (主键查询)
+    boolean existsByIdAndAlbumId(Long id, Long albumId);
+
+    // 点赞计数原子加一，同时标记照片被客户喜欢
+    @Modifying
+    @Query(value = "UPDATE photos SET like_count = like_count + 1, is_liked_by_client = TRUE WHERE id = :photoId",
+            nativeQuery = true)
+    int incrementLikeCount(@Param("photoId") Long photoId);
+
+    // 点赞计数原子减一 (不会减到负数)。MySQL 按顺序执行 SET，第二个赋值看到的是减一后的计数
+    @Modifying
+    @Query(value = "UPDATE photos SET like_count = like_count - 1, is_liked_by_client = (like_count > 0) "
+            + "WHERE id = :photoId AND like_count > 0", nativeQuery = true)
+    int decrementLikeCount(@Param("photoId") Long photoId);
+
+    @Query("SELECT p.likeCount FROM Photo p WHERE p.id = :photoId")
+    Optional<Integer> findLikeCount(@Param("photoId") Long photoId);
+
+    // 相册中已经被照片引用的直传对象 (缩略图URL, 预览图Key)，防止重复提交同一批上传
+    @Query("SELECT p.storageUrl, p.analysisImageKey FROM Photo p WHERE p.album.id = :albumId "
+            + "AND (p.storageUrl IN :storageUrls OR p.analysisImageKey IN :analysisImageKeys)")
+    List<Object[]> findClaimedObjects(@Param("albumId") Long albumId,
+                                      @Param("storageUrls") Collection<String> storageUrls,
+                                      @Param("analysisImageKeys") Collection<String> analysisImageKeys);
+
+    // 图片分发只需要缩略图URL和分享图Key
+    @Query("SELECT p.storageUrl, p.shareImageKey FROM Photo p WHERE p.id = :photoId")
+    List<Object[]> findDeliveryKeys(@Param("photoId") Long photoId);
+
+    // 只取构建近似重复索引需要的 (id, 感知哈希)，按上传顺序排列
+    @Query("SELECT p.id, p.perceptualHash FROM Photo p WHERE p.album.id = :albumId AND p.perceptualHash IS NOT NULL ORDER BY p.id")
+    List<Object[]> findPerceptualHashesByAlbumId(@Param("albumId") Long albumId);
+
+    // 照片列表只查询网格需要的列，不触发 EAGER 集合的加载
+    @Query("SELECT new com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse("
+            + "p.id, p.storageUrl, p.finalStorageUrl, p.analysisImageKey, p.shareImageKey, p.originalFileName, "
+            + "p.isLikedByClient, p.likeCount, p.isFinalized, p.localCategory, p.cloudAnalyzed, p.faceCount, "
+            + "p.allFacesSmiling, p.allEyesOpen) "
+            + "FROM Photo p WHERE p.album.id = :albumId AND (:likedOnly = false OR p.isLikedByClient = true) "
+            + "ORDER BY p.id")
+    List<PhotoSummaryResponse> findSummariesByAlbumId(@Param("albumId") Long albumId, @Param("likedOnly") boolean likedOnly);
+
+    // 按上传顺序 (主键) 的键集分页：从 afterId 之后取一页，由 album_id 外键索引 (隐含主键) 支撑
+    @Query("SELECT new com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse("
+            + "p.id, p.storageUrl, p.finalStorageUrl, p.analysisImageKey, p.shareImageKey, p.originalFileName, "
+            + "p.isLikedByClient, p.likeCount, p.isFinalized, p.localCategory, p.cloudAnalyzed, p.faceCount, "
+            + "p.allFacesSmiling, p.allEyesOpen) "
+            + "FROM Photo p WHERE p.album.id = :albumId AND (:likedOnly = false OR p.isLikedByClient = true) "
+            + "AND p.id > :afterId "
+            + "ORDER BY p.id")
+    List<PhotoSummaryResponse> findSummaryPageByUploadOrder(@Param("albumId") Long albumId,
+                                                            @Param("likedOnly") boolean likedOnly,
+                                                            @Param("afterId") long afterId,
+                                                            Pageable pageable);
+
+    // 按文件名 (相同时按主键) 的键集分页，由 (album_id, original_file_name, id) 索引支撑。
+    // MySQL 升序时 NULL 排在最前：afterName 为 null 表示上一页停在无文件名的照片上
+    @Query("SELECT new com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse("
+            + "p.id, p.storageUrl, p.finalStorageUrl, p.analysisImageKey, p.shareImageKey, p.originalFileName, "
+            + "p.isLikedByClient, p.likeCount, p.isFinalized, p.localCategory, p.cloudAnalyzed, p.faceCount, "
+            + "p.allFacesSmiling, p.allEyesOpen) "
+            + "FROM Photo p WHERE p.album.id = :albumId AND (:likedOnly = false OR p.isLikedByClient = true) "
+            + "AND (:afterName IS NULL AND (p.originalFileName IS NOT NULL OR p.id > :afterId) "
+            + "OR p.originalFileName > :afterName "
+            + "OR p.originalFileName = :afterName AND p.id > :afterId) "
+            + "ORDER BY p.originalFileName, p.id")
+    List<PhotoSummaryResponse> findSummaryPageByFileName(@Param("albumId") Long albumId,
+                                                         @Param("likedOnly") boolean likedOnly,
+                                                         @Param("afterName") String afterName,
+                                                         @Param("afterId") long afterId,
+                                                         Pageable pageable);
+
+    @Query("SELECT p.id, c FROM Photo p JOIN p.categories c WHERE p.id IN :photoIds")
+    List<Object[]> findCategoriesByPhotoIds(@Param("photoIds") Collection<Long> photoIds);
+
+    @Query("SELECT p.id, l FROM Photo p JOIN p.aiLabels l WHERE p.id IN :photoIds")
+    List<Object[]> findAiLabelsByPhotoIds(@Param("photoIds") Collection<Long> photoIds);
+
+    // 一条语句取回整个相册的分类 (photoId, category)
+    @Query("SELECT p.id, c FROM Photo p JOIN p.categories c WHERE p.album.id = :albumId")
+    List<Object[]> findCategoriesByAlbumId(@Param("albumId") Long albumId);
+
+    // 一条语句取回整个相册的AI标签 (photoId, label)
+    @Query("SELECT p.id, l FROM Photo p JOIN p.aiLabels l WHERE p.album.id = :albumId")
+    List<Object[]> findAiLabelsByAlbumId(@Param("albumId") Long albumId);
+
 }
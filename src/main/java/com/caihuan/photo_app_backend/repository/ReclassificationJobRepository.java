@@ -0,0 +1,37 @@
+package com.caihuan.photo_app_backend.repository;
+
+import com.caihuan.photo_app_backend.entity.ReclassificationJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 重新分类任务仓库
+ */
+public interface ReclassificationJobRepository extends JpaRepository<ReclassificationJob, Long> {
+
+    Optional<ReclassificationJob> findFirstByOrderByIdDesc();
+
+    // 应用重启后，上次未结束的任务都视为中断
+    @Modifying
+    @Transactional
+    @Query("UPDATE ReclassificationJob j SET j.status = com.caihuan.photo_app_backend.entity.ReclassificationJob.Status.PAUSED "
+            + "WHERE j.status = com.caihuan.photo_app_backend.entity.ReclassificationJob.Status.RUNNING")
+    int pauseRunningJobs();
+
+    // 只推进检查点和计数，不覆盖其他字段
+    @Modifying
+    @Transactional
+    @Query("UPDATE ReclassificationJob j SET j.lastPhotoId = :lastPhotoId, j.processedPhotos = :processed, "
+            + "j.changedPhotos = :changed, j.updatedAt = :now WHERE j.id = :jobId")
+    int saveCheckpoint(@Param("jobId") Long jobId, @Param("lastPhotoId") long lastPhotoId,
+                       @Param("processed") long processed, @Param("changed") long changed,
+                       @Param("now") Instant now);
+}
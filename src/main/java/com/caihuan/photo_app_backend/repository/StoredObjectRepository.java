@@ -0,0 +1,44 @@
+package com.caihuan.photo_app_backend.repository;
+
+import com.caihuan.photo_app_backend.entity.StoredObject;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 内容寻址对象引用计数仓库
+ */
+public interface StoredObjectRepository extends JpaRepository<StoredObject, String> {
+
+    // 原子地增加一次引用：行不存在时插入计数为 1 的新行
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO stored_objects (object_key, ref_count, created_at) VALUES (:objectKey, 1, NOW()) "
+            + "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int acquire(@Param("objectKey") String objectKey);
+
+    // 撤销一次引用 (上传失败时使用)，计数归零的行随后由 deleteIfUnreferenced 清理
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE stored_objects SET ref_count = ref_count - 1 WHERE object_key = :objectKey", nativeQuery = true)
+    int decrement(@Param("objectKey") String objectKey);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM StoredObject s WHERE s.objectKey = :objectKey AND s.refCount <= 0")
+    int deleteIfUnreferenced(@Param("objectKey") String objectKey);
+
+    // 加行锁读取引用计数，防止释放与新的引用交错
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StoredObject s WHERE s.objectKey IN :objectKeys")
+    List<StoredObject> findAllForUpdate(@Param("objectKeys") Collection<String> objectKeys);
+}
@@ -4,13 +4,18 @@ import com.caihuan.photo_app_backend.services.UserDetailsImpl;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SecurityException;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.List;
 
 import java.security.Key;
 
@@ -32,51 +37,79 @@ private String jwtSecret;
 @Value("${photoapp.jwt.expirationMs}")
 private int jwtExpirationMs;
 
-//为成功登录的用户生成JWT
-public String generateJwtToken(Authentication authentication) {
+// 自定义声明：用户ID和角色，过滤器据此直接构建当前用户，不再查询数据库
+private static final String CLAIM_USER_ID = "uid";
+private static final String CLAIM_ROLES = "roles";
+
+// 由密钥派生的签名 Key 和解析器都是不可变、线程安全的，启动时构建一次
+private Key signingKey;
+private JwtParser jwtParser;
 
-    // 【在这里添加日志】
+@PostConstruct
+public void init() {
+    signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+    jwtParser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+}
 
-    logger.info("====================================================");
-    logger.info("JWT Secret Key being used: " + this.jwtSecret);
-    logger.info("====================================================");
+//为成功登录的用户生成JWT
+public String generateJwtToken(Authentication authentication) {
     //获取对象信息
     UserDetailsImpl userPrincipal = (UserDetailsImpl) authentication.getPrincipal();
+    List<String> roles = userPrincipal.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .toList();
     return Jwts.builder()//构建通行证
             .setSubject((userPrincipal.getUsername()))//用户名
+            .claim(CLAIM_USER_ID, userPrincipal.getId())//用户ID
+            .claim(CLAIM_ROLES, roles)//角色
             .setIssuedAt(new Date())//签发时间
             .setExpiration(new Date(new Date().getTime() + jwtExpirationMs))//计算并设置过期时间
-            .signWith(key(), SignatureAlgorithm.HS256)//给通行证签名
+            .signWith(signingKey, SignatureAlgorithm.HS256)//给通行证签名
             .compact();//生成最终通行证
 }
 
-    //从配置文件中的Base64编码的密钥字符串，生成一个真正可以用于加密的Key对象
-private Key key() {
-    return Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
-}
-
 //从通行证中读取用户名
 public String getUsernameFromJwtToken(String token) {
-    return Jwts.parserBuilder().setSigningKey(key()).build().parseClaimsJws(token).getBody().getSubject();
+    return jwtParser.parseClaimsJws(token).getBody().getSubject();
 }
 
-//验证token是否生效
-public boolean validateJwtToken(String authToken) {
+/**
+ * 验证并解析通行证，每个请求只需解析一次。
+ * @return 通行证中的声明；通行证无效时返回 null
+ */
+public Claims parseValidClaims(String token) {
     try {
-        Jwts.parserBuilder().setSigningKey(key()).build().parse(authToken);
-        return true;
-    } catch (
-    MalformedJwtException e) {
-        logger.error("Invalid JWT token: {}", e.getMessage());
-    } catch (
-    ExpiredJwtException e) {
+        return jwtParser.parseClaimsJws(token).getBody();
+    } catch (ExpiredJwtException e) {
         logger.error("JWT token is expired: {}", e.getMessage());
-    } catch (
-    UnsupportedJwtException e) {
+    } catch (MalformedJwtException | SecurityException e) {
+        logger.error("Invalid JWT token: {}", e.getMessage());
+    } catch (UnsupportedJwtException e) {
         logger.error("JWT token is unsupported: {}", e.getMessage());
     } catch (IllegalArgumentException e) {
         logger.error("JWT claims string is empty: {}", e.getMessage());
     }
-        return false;
+    return null;
+}
+
+/**
+ * 直接从声明构建当前用户。旧版本签发的通行证没有用户ID/角色声明，此时返回 null，由调用方回退到查询用户。
+ * 角色随通行证签发，修改角色要等旧通行证过期后才会生效。
+ */
+public UserDetailsImpl getUserDetailsFromClaims(Claims claims) {
+    Number userId = claims.get(CLAIM_USER_ID, Number.class);
+    List<?> roles = claims.get(CLAIM_ROLES, List.class);
+    if (userId == null || roles == null) {
+        return null;
+    }
+    List<GrantedAuthority> authorities = roles.stream()
+            .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(String.valueOf(role)))
+            .toList();
+    return new UserDetailsImpl(userId.longValue(), claims.getSubject(), null, null, authorities);
+}
+
+//验证token是否生效
+public boolean validateJwtToken(String authToken) {
+    return parseValidClaims(authToken) != null;
 }
 }
@@ -0,0 +1,111 @@
+package com.caihuan.photo_app_backend.services;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 自适应并发限制器 (AIMD)
+ * 遇到限流时并发上限减半，连续成功一整轮 (成功次数达到当前上限) 后上限加一。
+ * 用于让相册分析的并发度自动贴合账号的 Rekognition TPS 配额。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    private int limit;
+    private int inFlight;
+    private int successStreak;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("并发上限配置无效: min=" + minLimit + ", max=" + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 阻塞直到拿到一个并发许可。
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用成功，归还许可；连续成功一整轮后上限加一。
+     */
+    public void onSuccess() {
+        lock.lock();
+        try {
+            inFlight--;
+            if (++successStreak >= limit && limit < maxLimit) {
+                limit++;
+                successStreak = 0;
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用被限流，归还许可并把上限减半。
+     */
+    public void onThrottled() {
+        lock.lock();
+        try {
+            inFlight--;
+            limit = Math.max(minLimit, limit / 2);
+            successStreak = 0;
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用因其他原因失败，只归还许可，不影响上限。
+     */
+    public void onFailure() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.caihuan.photo_app_backend.services;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 相册内容变化事件
+ * 相册中的照片、点赞或评论发生变化 (或相册被删除) 时发布，
+ * 用于精确失效与该相册相关的缓存。
+ */
+public record AlbumContentChangedEvent(Long albumId) {
+}
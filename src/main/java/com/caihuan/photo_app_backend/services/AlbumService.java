@@ -6,6 +6,7 @@ import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
 import com.caihuan.photo_app_backend.repository.AlbumRepository;
 import com.caihuan.photo_app_backend.repository.PhotoRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.util.ArrayList;
@@ -19,6 +20,9 @@ public class AlbumService {
     private final AlbumRepository albumRepository;
     private final PhotoRepository photoRepository;
     private final S3Service s3Service;
+    private final ContentAddressedStorageService contentAddressedStorage;
+    private final PerceptualHashIndexService perceptualHashIndex;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Transactional // 保证整个方法是一个原子操作，失败则回滚数据库
     public void deleteAlbumAndAssociatedPhotos(Long albumId, Long userId) {
@@ -45,20 +49,25 @@ public class AlbumService {
                 if (photo.getAnalysisImageKey() != null && !photo.getAnalysisImageKey().isEmpty()) {
                     s3KeysToDelete.add(photo.getAnalysisImageKey());
                 }
+                if (photo.getShareImageKey() != null && !photo.getShareImageKey().isEmpty()) {
+                    s3KeysToDelete.add(photo.getShareImageKey());
+                }
             }
             
             List<String> validKeys = s3KeysToDelete.stream()
                 .filter(key -> key != null && !key.isEmpty())
                 .collect(Collectors.toList());
 
-            // 4. 命令S3Service执行批量删除
+            // 4. 释放这些对象的引用，不再被任何照片引用的对象会被批量删除
             if (!validKeys.isEmpty()) {
-                s3Service.deleteObjects(validKeys);
+                contentAddressedStorage.releaseObjects(validKeys);
             }
         }
 
         // 5. 从数据库中删除相册记录
         // (前提：在Album实体中设置了CascadeType.ALL, orphanRemoval=true)
         albumRepository.delete(album);
+        perceptualHashIndex.onAlbumRemoved(albumId);
+        eventPublisher.publishEvent(new AlbumContentChangedEvent(albumId));
     }
 }
\ No newline at end of file
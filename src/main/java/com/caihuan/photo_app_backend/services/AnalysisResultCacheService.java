@@ -0,0 +1,176 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.AnalysisResult;
+import com.caihuan.photo_app_backend.payload.response.ImageAnalysisResponse;
+import com.caihuan.photo_app_backend.repository.AnalysisResultRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description AI 分析结果缓存 (内存 + 数据库两级)
+ * 以分析图字节的 SHA-256 为键：重复同步、跨相册的重复照片、对同一张图反复调用 analyze-cloud，
+ * 只要图片字节相同就直接返回之前的分析结果，不再发出 Rekognition 调用。
+ * 内存层是有容量上限的 Caffeine 缓存，数据库层 (analysis_results 表) 在重启后仍然有效。
+ */
+@Service
+@RequiredArgsConstructor
+public class AnalysisResultCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisResultCacheService.class);
+
+    // 每次分析需要的 Rekognition 调用数 (DetectLabels / DetectFaces / DetectText)
+    private static final int REMOTE_CALLS_PER_ANALYSIS = 3;
+
+    private final AnalysisResultRepository analysisResultRepository;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${photoapp.analysis-cache.enabled:true}")
+    private boolean enabled;
+
+    // 内存层的最大条目数
+    @Value("${photoapp.analysis-cache.memory-size:10000}")
+    private long memorySize;
+
+    private Cache<String, ImageAnalysisResponse> results;
+    private Counter memoryHits;
+    private Counter databaseHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        results = Caffeine.newBuilder()
+                .maximumSize(memorySize)
+                .build();
+
+        memoryHits = Counter.builder("analysis.cache")
+                .tag("result", "memory-hit")
+                .description("分析结果缓存在内存层命中的次数")
+                .register(meterRegistry);
+        databaseHits = Counter.builder("analysis.cache")
+                .tag("result", "database-hit")
+                .description("分析结果缓存在数据库层命中的次数")
+                .register(meterRegistry);
+        misses = Counter.builder("analysis.cache")
+                .tag("result", "miss")
+                .description("分析结果缓存未命中次数 (即实际发出的分析次数)")
+                .register(meterRegistry);
+        FunctionCounter.builder("analysis.cache.remote.calls.saved", this,
+                        cache -> (cache.memoryHits.count() + cache.databaseHits.count()) * REMOTE_CALLS_PER_ANALYSIS)
+                .description("因命中缓存而省下的 Rekognition 调用次数")
+                .register(meterRegistry);
+        Gauge.builder("analysis.cache.hit.ratio", this, AnalysisResultCacheService::hitRatio)
+                .description("分析结果缓存命中率 (内存层 + 数据库层)")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查找图片内容对应的分析结果，先查内存再查数据库。
+     * @param contentSha256 分析图字节的 SHA-256，见 {@link #sha256Hex(byte[])}
+     * @return 分析结果的副本，调用方可以随意修改
+     */
+    public Optional<ImageAnalysisResponse> find(String contentSha256) {
+        ImageAnalysisResponse cached = results.getIfPresent(contentSha256);
+        if (cached != null) {
+            memoryHits.increment();
+            return Optional.of(copyOf(cached));
+        }
+        Optional<ImageAnalysisResponse> stored = loadFromDatabase(contentSha256);
+        if (stored.isPresent()) {
+            databaseHits.increment();
+            results.put(contentSha256, stored.get());
+            return Optional.of(copyOf(stored.get()));
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * 保存一次新的分析结果。写数据库失败只影响下次能否命中，不影响本次分析。
+     */
+    public void put(String contentSha256, ImageAnalysisResponse response) {
+        ImageAnalysisResponse stored = copyOf(response);
+        results.put(contentSha256, stored);
+        try {
+            AnalysisResult entity = new AnalysisResult();
+            entity.setContentSha256(contentSha256);
+            entity.setResultJson(objectMapper.writeValueAsString(stored));
+            entity.setCreatedAt(Instant.now());
+            analysisResultRepository.save(entity);
+        } catch (JsonProcessingException | DataAccessException e) {
+            // 并发分析同一张图时另一个线程可能已经写入，这里直接忽略
+            logger.warn("保存分析结果缓存 [{}] 失败: {}", contentSha256, e.getMessage());
+        }
+    }
+
+    private Optional<ImageAnalysisResponse> loadFromDatabase(String contentSha256) {
+        try {
+            Optional<AnalysisResult> entity = analysisResultRepository.findById(contentSha256);
+            if (entity.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(objectMapper.readValue(entity.get().getResultJson(), ImageAnalysisResponse.class));
+        } catch (JsonProcessingException | DataAccessException e) {
+            logger.warn("读取分析结果缓存 [{}] 失败，按未命中处理: {}", contentSha256, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private double hitRatio() {
+        double hits = memoryHits.count() + databaseHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    /**
+     * 缓存中的对象会被多次返回，列表字段复制一份，避免调用方 (例如写入实体) 修改缓存内容。
+     */
+    private static ImageAnalysisResponse copyOf(ImageAnalysisResponse response) {
+        return ImageAnalysisResponse.builder()
+                .categories(response.getCategories() == null ? null : new ArrayList<>(response.getCategories()))
+                .labels(response.getLabels() == null ? null : new ArrayList<>(response.getLabels()))
+                .detectedText(response.getDetectedText())
+                .textLineDetected(response.getTextLineDetected())
+                .faceCount(response.getFaceCount())
+                .allFacesSmiling(response.isAllFacesSmiling())
+                .allEyesOpen(response.isAllEyesOpen())
+                .build();
+    }
+
+    /**
+     * 图片内容的 SHA-256 (十六进制小写)，作为缓存键。
+     */
+    public static String sha256Hex(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
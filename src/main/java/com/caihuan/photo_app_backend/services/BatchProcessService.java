@@ -4,17 +4,45 @@ import com.caihuan.photo_app_backend.entity.Album;
 import com.caihuan.photo_app_backend.entity.Photo;
 import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
 import com.caihuan.photo_app_backend.payload.dto.PhotoArchiveDto;
+import com.caihuan.photo_app_backend.payload.request.PresignedUploadRequest;
+import com.caihuan.photo_app_backend.payload.response.PresignedUploadResponse;
 import com.caihuan.photo_app_backend.repository.AlbumRepository;
 import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
@@ -22,50 +50,553 @@ public class BatchProcessService {
 
     private static final Logger logger = LoggerFactory.getLogger(BatchProcessService.class);
 
+    // 直传 Key 的文件名部分：前缀_UUID_申报大小[_申报SHA-256].jpg
+    private static final Pattern DIRECT_UPLOAD_NAME =
+            Pattern.compile("(?:thumb|analysis)_[0-9a-f-]{36}_(\\d+)(?:_([0-9a-f]{64}))?\\.jpg");
+
+    // multipart 同步时图片 part 的命名前缀，后接档案在元数据列表中的下标
+    public static final String THUMBNAIL_PART_PREFIX = "thumbnail_";
+    public static final String PREVIEW_PART_PREFIX = "preview_";
+
     private final S3Service s3Service;
     private final PhotoRepository photoRepository;
     private final AlbumRepository albumRepository;
+    private final ContentAddressedStorageService contentAddressedStorage;
+    private final PerceptualHashIndexService perceptualHashIndex;
+    private final RenditionService renditionService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
 
-    @Transactional
-    public List<Photo> processAndSaveArchives(Long albumId, List<PhotoArchiveDto> archives) {
-        Album album = albumRepository.findById(albumId)
-                .orElseThrow(() -> new ResourceNotFoundException("处理批量上传失败：未找到 ID 为 " + albumId + " 的相册"));
+    // 同时进行的S3上传数量 (所有同步请求共享)
+    @Value("${photoapp.batch.upload-concurrency:16}")
+    private int uploadConcurrency;
 
-        logger.info("开始同步相册 '{}' 的 {} 个数字档案...", album.getName(), archives.size());
+    // 直传预签名URL的有效期 (分钟)
+    @Value("${photoapp.upload.direct.url-validity-minutes:15}")
+    private long directUploadUrlValidityMinutes;
 
-        List<Photo> savedPhotos = new ArrayList<>();
+    // 直传的单个文件大小上限 (MB)
+    @Value("${photoapp.upload.direct.max-object-size-mb:20}")
+    private long directUploadMaxObjectSizeMb;
 
-        for (PhotoArchiveDto archive : archives) {
-            try {
-                Photo photo = new Photo();
-                photo.setAlbum(album);
-                photo.setOriginalFileName(archive.getOriginalFileName());
-                photo.setLocalCategory(archive.getLocalCategory());
+    // 一次最多为多少张照片签发直传地址
+    @Value("${photoapp.upload.direct.max-batch-size:500}")
+    private int directUploadMaxBatchSize;
+
+    private ExecutorService uploadExecutor;
+
+    // 正在进行的批量同步请求数
+    private final AtomicInteger inFlightSyncs = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        uploadExecutor = Executors.newFixedThreadPool(uploadConcurrency,
+                Thread.ofPlatform().name("s3-upload-", 0).daemon(true).factory());
+        // executor.queued / executor.active 等指标，name=s3-upload
+        new ExecutorServiceMetrics(uploadExecutor, "s3-upload", Tags.empty()).bindTo(meterRegistry);
+        Gauge.builder("batch.sync.inflight", inFlightSyncs, AtomicInteger::get)
+                .description("正在进行的批量同步请求数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdown();
+    }
+
+    /**
+     * 一个待上传的图片：负责把自己上传到S3，并返回 URL 或 Key。
+     */
+    @FunctionalInterface
+    private interface ImageUpload {
+        String upload() throws Exception;
+    }
+
+    /**
+     * 已上传的 AI 分析预览图：Key 和内容的 SHA-256 (十六进制，分析结果缓存的键)。
+     */
+    private record AnalysisImage(String key, String sha256) {
+    }
 
+    /**
+     * 一个待上传的预览图。图片字节在上传时已经在手边，顺便计算哈希，分析时就不用再下载一遍。
+     */
+    @FunctionalInterface
+    private interface AnalysisImageUpload {
+        AnalysisImage upload() throws Exception;
+    }
+
+    /**
+     * 一个待同步的档案，以及它的缩略图/预览图上传任务 (不存在时为 null)。
+     */
+    private record PendingArchive(PhotoArchiveDto archive, ImageUpload thumbnail, AnalysisImageUpload preview) {
+    }
+
+    /**
+     * 上传完成、等待写入数据库的照片，以及它在S3上已创建的对象 Key (用于失败时清理)。
+     */
+    private record UploadedArchive(Photo photo, List<String> uploadedKeys) {
+    }
+
+    public List<Photo> processAndSaveArchives(Long albumId, List<PhotoArchiveDto> archives) {
+        return trackSync("archives", () -> {
+            Album album = findAlbum(albumId);
+            logger.info("开始同步相册 '{}' 的 {} 个数字档案...", album.getName(), archives.size());
+
+            List<PendingArchive> pending = new ArrayList<>(archives.size());
+            for (PhotoArchiveDto archive : archives) {
                 // 【核心修改】只有在 Base64 数据存在时才处理和上传图片
+                // Base64 解码放到上传线程里进行，解码后的字节数组只在上传期间存在
+                boolean contentAddressed = contentAddressedStorage.isEnabled();
+                ImageUpload thumbnail = null;
                 if (archive.getThumbnailBase64() != null && !archive.getThumbnailBase64().isEmpty()) {
-                    byte[] thumbnailBytes = Base64.getDecoder().decode(archive.getThumbnailBase64());
-                    String thumbnailUrl = s3Service.uploadThumbnail(thumbnailBytes, archive.getOriginalFileName());
-                    photo.setStorageUrl(thumbnailUrl); // UI 使用的缩略图
+                    thumbnail = contentAddressed
+                            ? () -> {
+                                byte[] bytes = Base64.getDecoder().decode(archive.getThumbnailBase64());
+                                return contentAddressedStorage.storeThumbnail(() -> new ByteArrayInputStream(bytes), bytes.length);
+                            }
+                            : () -> s3Service.uploadThumbnail(
+                                    Base64.getDecoder().decode(archive.getThumbnailBase64()), archive.getOriginalFileName());
                 }
-
+                AnalysisImageUpload preview = null;
                 if (archive.getPreviewBase64() != null && !archive.getPreviewBase64().isEmpty()) {
-                    byte[] previewBytes = Base64.getDecoder().decode(archive.getPreviewBase64());
-                    String analysisImageKey = s3Service.uploadAnalysisImageAndReturnKey(previewBytes, archive.getOriginalFileName());
-                    photo.setAnalysisImageKey(analysisImageKey); // AI 分析使用的预览图
+                    preview = () -> {
+                        byte[] bytes = Base64.getDecoder().decode(archive.getPreviewBase64());
+                        String key = contentAddressed
+                                ? contentAddressedStorage.storeAnalysisImage(() -> new ByteArrayInputStream(bytes), bytes.length)
+                                : s3Service.uploadAnalysisImageAndReturnKey(bytes, archive.getOriginalFileName());
+                        return new AnalysisImage(key, AnalysisResultCacheService.sha256Hex(bytes));
+                    };
+                }
+                pending.add(new PendingArchive(archive, thumbnail, preview));
+            }
+
+            List<Photo> savedPhotos = ingest(album, pending);
+            logger.info("相册 '{}' 的数字档案同步完成。", album.getName());
+            return savedPhotos; // 返回包含新ID的照片列表
+        });
+    }
+
+    /**
+     * multipart 版本的批量同步。
+     * 图片不再以 Base64 形式放在 JSON 里，而是作为独立的文件 part 上传：
+     * 第 i 个档案的缩略图 part 名为 "thumbnail_i"，预览图 part 名为 "preview_i"。
+     * 每个 part 由 Servlet 容器落盘，上传时直接以流的形式读取，
+     * 因此无论批次多大，单个请求占用的堆内存都是有界的。
+     * @param albumId 目标相册ID
+     * @param archives 档案元数据 (其中的 Base64 字段会被忽略)
+     * @param files 按 part 名称索引的图片文件
+     * @return 保存后的照片列表
+     */
+    public List<Photo> processAndSaveMultipartArchives(Long albumId, List<PhotoArchiveDto> archives, Map<String, MultipartFile> files) {
+        return trackSync("multipart", () -> {
+            Album album = findAlbum(albumId);
+            logger.info("开始以 multipart 方式同步相册 '{}' 的 {} 个数字档案...", album.getName(), archives.size());
+
+            List<PendingArchive> pending = new ArrayList<>(archives.size());
+            for (int i = 0; i < archives.size(); i++) {
+                PhotoArchiveDto archive = archives.get(i);
+
+                boolean contentAddressed = contentAddressedStorage.isEnabled();
+
+                ImageUpload thumbnail = null;
+                MultipartFile thumbnailFile = files.get(THUMBNAIL_PART_PREFIX + i);
+                if (thumbnailFile != null && !thumbnailFile.isEmpty()) {
+                    thumbnail = contentAddressed
+                            ? () -> contentAddressedStorage.storeThumbnail(thumbnailFile::getInputStream, thumbnailFile.getSize())
+                            : () -> {
+                                try (InputStream in = thumbnailFile.getInputStream()) {
+                                    return s3Service.uploadThumbnail(in, thumbnailFile.getSize(), archive.getOriginalFileName());
+                                }
+                            };
+                }
+                AnalysisImageUpload preview = null;
+                MultipartFile previewFile = files.get(PREVIEW_PART_PREFIX + i);
+                if (previewFile != null && !previewFile.isEmpty()) {
+                    preview = contentAddressed
+                            ? () -> {
+                                // 内容寻址的 Key 本身就带着内容哈希
+                                String key = contentAddressedStorage.storeAnalysisImage(previewFile::getInputStream, previewFile.getSize());
+                                return new AnalysisImage(key, ContentAddressedStorageService.contentHashOf(key).orElse(null));
+                            }
+                            : () -> {
+                                // part 已经落在本地磁盘，多读一遍只是本地IO
+                                String sha256 = ContentAddressedStorageService.sha256Hex(previewFile::getInputStream);
+                                try (InputStream in = previewFile.getInputStream()) {
+                                    String key = s3Service.uploadAnalysisImageAndReturnKey(in, previewFile.getSize(), archive.getOriginalFileName());
+                                    return new AnalysisImage(key, sha256);
+                                }
+                            };
                 }
+                pending.add(new PendingArchive(archive, thumbnail, preview));
+            }
+
+            List<Photo> savedPhotos = ingest(album, pending);
+            logger.info("相册 '{}' 的数字档案 (multipart) 同步完成。", album.getName());
+            return savedPhotos;
+        });
+    }
+
+    /**
+     * 上传一张原图，由服务端渲染出缩略图、AI分析预览图和分享图，三者并发上传后创建照片记录。
+     * 原图本身不保存。网页端和 API 客户端因此不需要各自实现缩放逻辑。
+     * @param albumId 目标相册ID
+     * @param file 原图
+     * @return 保存后的照片
+     * @throws IOException 图片无法解码
+     */
+    public Photo processAndSaveOriginal(Long albumId, MultipartFile file) throws IOException {
+        Album album = findAlbum(albumId);
+        String fileName = file.getOriginalFilename();
+        RenditionService.Renditions renditions = renditionService.render(file);
 
-                Photo savedPhoto = photoRepository.save(photo);
-                savedPhotos.add(savedPhoto); // 将保存后的对象（包含ID）加入列表
-                logger.info("已将照片 {} 的记录成功保存到数据库，ID为 {}", archive.getOriginalFileName(), savedPhoto.getId());
+        CompletableFuture<String> thumbnailUpload = CompletableFuture.supplyAsync(
+                () -> s3Service.uploadThumbnail(renditions.thumbnail(), fileName), uploadExecutor);
+        CompletableFuture<String> previewUpload = CompletableFuture.supplyAsync(
+                () -> s3Service.uploadAnalysisImageAndReturnKey(renditions.preview(), fileName), uploadExecutor);
+        CompletableFuture<String> shareUpload = CompletableFuture.supplyAsync(
+                () -> s3Service.uploadShareImageAndReturnKey(renditions.share(), fileName), uploadExecutor);
 
-            } catch (Exception e) {
-                logger.error("处理档案 {} 时发生错误: {}", archive.getOriginalFileName(), e.getMessage(), e);
-                // 选择跳过这个文件，继续处理下一个
+        Photo photo = new Photo();
+        photo.setAlbum(album);
+        photo.setOriginalFileName(fileName);
+        try {
+            CompletableFuture.allOf(thumbnailUpload, previewUpload, shareUpload).join();
+            photo.setStorageUrl(thumbnailUpload.join());
+            photo.setAnalysisImageKey(previewUpload.join());
+            photo.setAnalysisImageSha256(AnalysisResultCacheService.sha256Hex(renditions.preview()));
+            photo.setShareImageKey(shareUpload.join());
+            Photo savedPhoto = photoRepository.save(photo);
+            eventPublisher.publishEvent(new AlbumContentChangedEvent(album.getId()));
+            logger.info("原图 {} 已在服务端渲染并保存到相册 '{}'。", fileName, album.getName());
+            return savedPhoto;
+        } catch (RuntimeException e) {
+            logger.error("保存原图 {} 的渲染结果失败，开始清理已上传的S3对象。", fileName, e);
+            // allOf 在所有上传结束后才完成，这里只清理上传成功的渲染结果
+            List<String> uploadedKeys = new ArrayList<>(3);
+            if (!thumbnailUpload.isCompletedExceptionally()) {
+                uploadedKeys.add(s3Service.getObjectKeyFromUrl(thumbnailUpload.join()));
             }
+            if (!previewUpload.isCompletedExceptionally()) {
+                uploadedKeys.add(previewUpload.join());
+            }
+            if (!shareUpload.isCompletedExceptionally()) {
+                uploadedKeys.add(shareUpload.join());
+            }
+            deleteQuietly(uploadedKeys);
+            throw e;
         }
-        logger.info("相册 '{}' 的数字档案同步完成。", album.getName());
-        return savedPhotos; // 返回包含新ID的照片列表
     }
-}
 
+    /**
+     * 为一批照片签发直传S3的预签名 PUT URL，客户端直接把缩略图和预览图上传到S3，图片不再经过应用服务器。
+     * 分配的 Key 都在相册自己的前缀下，完成接口据此确认对象属于这个相册；
+     * 申报的大小和 SHA-256 也编码在 Key 里，完成接口据此核对实际上传的对象。
+     * 签名是纯本地计算，不访问S3。
+     * @param albumId 目标相册ID
+     * @param files 每张照片的文件信息
+     * @return 每张照片的 Key 和上传URL，顺序与请求一致
+     * @throws IllegalArgumentException 批次或文件超出大小限制
+     */
+    public List<PresignedUploadResponse> presignDirectUploads(Long albumId, List<PresignedUploadRequest> files) {
+        if (files.size() > directUploadMaxBatchSize) {
+            throw new IllegalArgumentException("一次最多申请 " + directUploadMaxBatchSize + " 张照片的上传地址");
+        }
+        Duration validity = Duration.ofMinutes(directUploadUrlValidityMinutes);
+        List<PresignedUploadResponse> slots = new ArrayList<>(files.size());
+        for (PresignedUploadRequest file : files) {
+            checkDirectUploadSize(file.getOriginalFileName(), file.getThumbnailSize());
+            String thumbnailKey = directUploadKey(albumId, "thumb_", file.getThumbnailSize(), file.getThumbnailSha256());
+            String thumbnailUrl = s3Service.generatePresignedPutUrl(
+                    thumbnailKey, file.getThumbnailSize(), file.getThumbnailSha256(), validity);
+
+            String previewKey = null;
+            String previewUrl = null;
+            if (file.getPreviewSize() != null) {
+                checkDirectUploadSize(file.getOriginalFileName(), file.getPreviewSize());
+                previewKey = directUploadKey(albumId, "analysis_", file.getPreviewSize(), file.getPreviewSha256());
+                previewUrl = s3Service.generatePresignedPutUrl(
+                        previewKey, file.getPreviewSize(), file.getPreviewSha256(), validity);
+            }
+            slots.add(new PresignedUploadResponse(thumbnailKey, thumbnailUrl, previewKey, previewUrl));
+        }
+        logger.info("为相册 {} 签发了 {} 张照片的直传地址。", albumId, slots.size());
+        return slots;
+    }
+
+    /**
+     * 直传完成后创建照片记录。
+     * 并发地用 HEAD 确认每个对象已上传、属于本相册，且大小和 SHA-256 与签发时申报的一致，
+     * 通过的照片在一个短事务中批量插入。未通过的档案被跳过，它已上传的对象会被删除。
+     * @param albumId 目标相册ID
+     * @param archives 档案元数据，thumbnailKey / previewKey 为预签名接口分配的 Key
+     * @return 保存后的照片列表
+     */
+    public List<Photo> completeDirectUploads(Long albumId, List<PhotoArchiveDto> archives) {
+        return trackSync("direct", () -> {
+            Album album = findAlbum(albumId);
+            logger.info("开始确认相册 '{}' 的 {} 个直传档案...", album.getName(), archives.size());
+
+            // 同一请求里重复出现的 Key，以及已经被照片引用的 Key 都不能再次使用
+            Set<String> claimedKeys = findClaimedKeys(albumId, archives);
+            Set<String> seenKeys = new HashSet<>();
+            List<CompletableFuture<UploadedArchive>> verifications = new ArrayList<>(archives.size());
+            for (PhotoArchiveDto archive : archives) {
+                boolean thumbnailUnclaimed = isUnclaimed(archive.getThumbnailKey(), claimedKeys, seenKeys);
+                boolean previewUnclaimed = isUnclaimed(archive.getPreviewKey(), claimedKeys, seenKeys);
+                if (!thumbnailUnclaimed || !previewUnclaimed) {
+                    logger.warn("档案 {} 引用的对象已被使用，跳过。", archive.getOriginalFileName());
+                    continue;
+                }
+                verifications.add(CompletableFuture.supplyAsync(() -> verifyDirectUpload(album, archive), uploadExecutor));
+            }
+
+            List<UploadedArchive> uploaded = new ArrayList<>(verifications.size());
+            for (CompletableFuture<UploadedArchive> verification : verifications) {
+                UploadedArchive result = verification.join();
+                if (result != null) {
+                    uploaded.add(result);
+                }
+            }
+            List<Photo> savedPhotos = saveUploaded(album, uploaded, archives.size());
+            logger.info("相册 '{}' 的直传档案确认完成。", album.getName());
+            return savedPhotos;
+        });
+    }
+
+    /**
+     * 执行一次批量同步，期间计入 batch.sync.inflight，结束后按方式和结果记录耗时 (batch.sync)。
+     */
+    private List<Photo> trackSync(String operation, Supplier<List<Photo>> sync) {
+        inFlightSyncs.incrementAndGet();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return sync.get();
+        } catch (RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            inFlightSyncs.decrementAndGet();
+            sample.stop(Timer.builder("batch.sync")
+                    .description("批量同步耗时")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private Set<String> findClaimedKeys(Long albumId, List<PhotoArchiveDto> archives) {
+        List<String> thumbnailUrls = new ArrayList<>();
+        List<String> previewKeys = new ArrayList<>();
+        for (PhotoArchiveDto archive : archives) {
+            if (archive.getThumbnailKey() != null) {
+                thumbnailUrls.add(s3Service.getObjectUrl(archive.getThumbnailKey()));
+            }
+            if (archive.getPreviewKey() != null) {
+                previewKeys.add(archive.getPreviewKey());
+            }
+        }
+        Set<String> claimed = new HashSet<>();
+        if (thumbnailUrls.isEmpty() && previewKeys.isEmpty()) {
+            return claimed;
+        }
+        for (Object[] row : photoRepository.findClaimedObjects(albumId, thumbnailUrls, previewKeys)) {
+            if (row[0] != null) {
+                claimed.add(s3Service.getObjectKeyFromUrl((String) row[0]));
+            }
+            if (row[1] != null) {
+                claimed.add((String) row[1]);
+            }
+        }
+        return claimed;
+    }
+
+    private static boolean isUnclaimed(String key, Set<String> claimedKeys, Set<String> seenKeys) {
+        return key == null || (!claimedKeys.contains(key) && seenKeys.add(key));
+    }
+
+    /**
+     * 确认一个直传档案的对象。失败时删除它在本相册前缀下的对象并返回 null，不会抛出异常。
+     */
+    private UploadedArchive verifyDirectUpload(Album album, PhotoArchiveDto archive) {
+        List<String> keys = new ArrayList<>(2);
+        try {
+            Photo photo = newPhoto(album, archive);
+            if (archive.getThumbnailKey() != null) {
+                verifyDirectUploadObject(album.getId(), archive.getThumbnailKey(), keys);
+                photo.setStorageUrl(s3Service.getObjectUrl(archive.getThumbnailKey()));
+            }
+            if (archive.getPreviewKey() != null) {
+                // 申报并核对过的 SHA-256 就是内容哈希；客户端没有申报时分析阶段再下载计算
+                photo.setAnalysisImageSha256(verifyDirectUploadObject(album.getId(), archive.getPreviewKey(), keys));
+                photo.setAnalysisImageKey(archive.getPreviewKey());
+            }
+            return new UploadedArchive(photo, keys);
+        } catch (Exception e) {
+            logger.warn("直传档案 {} 校验失败: {}", archive.getOriginalFileName(), e.getMessage());
+            deleteQuietly(keys);
+            return null;
+        }
+    }
+
+    /**
+     * 校验单个直传对象。Key 属于本相册时先记入 keys (校验失败时由调用方清理)，
+     * 再检查对象是否存在，以及大小和 SHA-256 是否与 Key 里记录的申报值一致。
+     * @return 核对过的 SHA-256 (十六进制)，签发时没有申报则为 null
+     */
+    private String verifyDirectUploadObject(Long albumId, String key, List<String> keys) {
+        String prefix = directUploadPrefix(albumId);
+        if (!key.startsWith(prefix)) {
+            throw new IllegalArgumentException("对象 " + key + " 不属于相册 " + albumId);
+        }
+        Matcher declared = DIRECT_UPLOAD_NAME.matcher(key.substring(prefix.length()));
+        if (!declared.matches()) {
+            throw new IllegalArgumentException("对象 " + key + " 不是签发的直传 Key");
+        }
+        keys.add(key);
+        Optional<ObjectStorage.ObjectMetadata> head = s3Service.headObject(key);
+        if (head.isEmpty()) {
+            throw new IllegalArgumentException("对象 " + key + " 尚未上传");
+        }
+        long size = head.get().size();
+        if (size <= 0 || size > directUploadMaxObjectSizeMb * 1024 * 1024) {
+            throw new IllegalArgumentException("对象 " + key + " 的大小不合法: " + size);
+        }
+        if (size != Long.parseLong(declared.group(1))) {
+            throw new IllegalArgumentException("对象 " + key + " 的大小 " + size + " 与申报的 " + declared.group(1) + " 不一致");
+        }
+        String declaredSha256 = declared.group(2);
+        if (declaredSha256 != null) {
+            String checksum = head.get().checksumSha256();
+            if (checksum == null || !declaredSha256.equals(HexFormat.of().formatHex(Base64.getDecoder().decode(checksum)))) {
+                throw new IllegalArgumentException("对象 " + key + " 的 SHA-256 与申报的不一致");
+            }
+        }
+        return declaredSha256;
+    }
+
+    private void checkDirectUploadSize(String fileName, long size) {
+        if (size > directUploadMaxObjectSizeMb * 1024 * 1024) {
+            throw new IllegalArgumentException("文件 " + fileName + " 超过 " + directUploadMaxObjectSizeMb + "MB 的上限");
+        }
+    }
+
+    private static String directUploadPrefix(Long albumId) {
+        return "direct/" + albumId + "/";
+    }
+
+    /**
+     * 分配直传 Key：前缀_UUID_大小[_SHA-256十六进制].jpg。
+     * 只有签发过的 Key 才能上传对象，所以完成时从 Key 里解析出的申报值是可信的。
+     */
+    private static String directUploadKey(Long albumId, String prefix, long size, String sha256) {
+        String name = prefix + UUID.randomUUID() + "_" + size;
+        if (sha256 != null && !sha256.isBlank()) {
+            byte[] digest = Base64.getDecoder().decode(sha256);
+            if (digest.length != 32) {
+                throw new IllegalArgumentException("SHA-256 校验和格式不正确");
+            }
+            name += "_" + HexFormat.of().formatHex(digest);
+        }
+        return directUploadPrefix(albumId) + name + ".jpg";
+    }
+
+    private Album findAlbum(Long albumId) {
+        return albumRepository.findById(albumId)
+                .orElseThrow(() -> new ResourceNotFoundException("处理批量上传失败：未找到 ID 为 " + albumId + " 的相册"));
+    }
+
+    /**
+     * 同步流水线：
+     * 1. 在有界线程池中并发上传所有图片 (不持有数据库连接)；
+     * 2. 上传成功的照片在一个短事务中批量插入。
+     * 单个档案上传失败时会清理它已上传的对象并跳过；批量插入失败时清理本批次所有对象。
+     */
+    private List<Photo> ingest(Album album, List<PendingArchive> pending) {
+        List<CompletableFuture<UploadedArchive>> uploads = pending.stream()
+                .map(p -> CompletableFuture.supplyAsync(() -> uploadArchive(album, p), uploadExecutor))
+                .toList();
+
+        List<UploadedArchive> uploaded = new ArrayList<>(uploads.size());
+        for (CompletableFuture<UploadedArchive> upload : uploads) {
+            UploadedArchive result = upload.join();
+            if (result != null) {
+                uploaded.add(result);
+            }
+        }
+
+        return saveUploaded(album, uploaded, pending.size());
+    }
+
+    /**
+     * 在一个短事务中批量插入已上传完成的照片。失败时清理本批次所有对象。
+     * @param total 本批次的档案总数 (用于日志)
+     */
+    private List<Photo> saveUploaded(Album album, List<UploadedArchive> uploaded, int total) {
+        List<Photo> photos = uploaded.stream().map(UploadedArchive::photo).toList();
+        try {
+            // saveAll 本身是一个事务；照片使用序列主键，INSERT 可以按批合并
+            List<Photo> savedPhotos = photoRepository.saveAll(photos);
+            perceptualHashIndex.onPhotosAdded(album.getId(), savedPhotos);
+            eventPublisher.publishEvent(new AlbumContentChangedEvent(album.getId()));
+            logger.info("已将 {} 张照片的记录批量保存到数据库 (跳过 {} 个失败档案)。",
+                    savedPhotos.size(), total - savedPhotos.size());
+            return savedPhotos;
+        } catch (RuntimeException e) {
+            logger.error("批量保存 {} 张照片记录失败，开始清理已上传的S3对象。", photos.size(), e);
+            deleteQuietly(uploaded.stream().flatMap(u -> u.uploadedKeys().stream()).toList());
+            throw e;
+        }
+    }
+
+    /**
+     * 上传一个档案的所有图片。失败时清理已上传的部分并返回 null，不会抛出异常。
+     */
+    private UploadedArchive uploadArchive(Album album, PendingArchive pending) {
+        PhotoArchiveDto archive = pending.archive();
+        Photo photo = newPhoto(album, archive);
+        List<String> uploadedKeys = new ArrayList<>(2);
+        try {
+            if (pending.thumbnail() != null) {
+                String thumbnailUrl = pending.thumbnail().upload();
+                uploadedKeys.add(s3Service.getObjectKeyFromUrl(thumbnailUrl));
+                photo.setStorageUrl(thumbnailUrl); // UI 使用的缩略图
+            }
+            if (pending.preview() != null) {
+                AnalysisImage analysisImage = pending.preview().upload();
+                uploadedKeys.add(analysisImage.key());
+                photo.setAnalysisImageKey(analysisImage.key()); // AI 分析使用的预览图
+                photo.setAnalysisImageSha256(analysisImage.sha256());
+            }
+            return new UploadedArchive(photo, uploadedKeys);
+        } catch (Exception e) {
+            logger.error("处理档案 {} 时发生错误: {}", archive.getOriginalFileName(), e.getMessage(), e);
+            // 选择跳过这个文件，继续处理下一个；已上传的部分不再被引用，直接删除
+            deleteQuietly(uploadedKeys);
+            return null;
+        }
+    }
+
+    private void deleteQuietly(List<String> keys) {
+        List<String> validKeys = keys.stream().filter(key -> key != null && !key.isEmpty()).toList();
+        if (validKeys.isEmpty()) {
+            return;
+        }
+        try {
+            // 内容寻址的对象可能被其他照片共享，只释放本次的引用
+            contentAddressedStorage.releaseObjects(validKeys);
+        } catch (Exception e) {
+            logger.error("清理 {} 个孤立的S3对象失败: {}", validKeys.size(), validKeys, e);
+        }
+    }
+
+    private Photo newPhoto(Album album, PhotoArchiveDto archive) {
+        Photo photo = new Photo();
+        photo.setAlbum(album);
+        photo.setOriginalFileName(archive.getOriginalFileName());
+        photo.setLocalCategory(archive.getLocalCategory());
+        photo.setPerceptualHash(archive.getPHash());
+        return photo;
+    }
+}
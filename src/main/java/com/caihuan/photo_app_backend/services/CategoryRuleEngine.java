@@ -0,0 +1,326 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 照片分类规则引擎
+ * 标签 -> 分类的规则从配置文件 (默认 classpath:category-rules.json) 读取，加载时编译：
+ * 规则中出现的所有标签 (小写) 编入一个字典，每个标签对应一个比特位，每条规则变成几组位掩码。
+ * 分类一张照片时先把它的标签映射成位集，之后每条规则只是几次按字 (long) 的与/或运算。
+ * 规则文件的修改时间定期检查，变化后重新编译并原子替换，不需要重启；新规则有误时保留旧规则。
+ *
+ * 规则文件格式：
+ * <pre>
+ * { "fallback": "其他",
+ *   "rules": [ { "category": "自然细节",
+ *                "any": ["flower"],                                     // 任一标签出现即匹配
+ *                "clauses": [ { "all": ["plant"], "none": ["potted plant"] } ],  // 或者某个子句匹配
+ *                "requireTextLine": false } ] }                         // 是否还要求检测到整行文字
+ * </pre>
+ * 分类按规则顺序输出，一条都不匹配时输出 fallback。
+ */
+@Service
+@RequiredArgsConstructor
+public class CategoryRuleEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CategoryRuleEngine.class);
+
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+
+    @Value("${photoapp.category-rules.location:classpath:category-rules.json}")
+    private String location;
+
+    // 检查规则文件是否被修改的间隔 (秒)，0 表示不自动重新加载
+    @Value("${photoapp.category-rules.reload-interval-seconds:30}")
+    private long reloadIntervalSeconds;
+
+    private volatile CompiledRules compiled;
+    // 最近一次尝试加载的规则文件的修改时间，不论成功与否；加载失败的文件不会每个周期重复解析和报错，再次修改后才重试
+    private volatile long checkedLastModified;
+    private ScheduledExecutorService reloadExecutor;
+
+    public record RuleSet(String fallback, List<Rule> rules) {
+    }
+
+    public record Rule(String category, List<String> any, List<Clause> clauses, boolean requireTextLine) {
+    }
+
+    public record Clause(List<String> all, List<String> none) {
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        // 启动时规则必须能加载成功
+        load(resourceLoader.getResource(location));
+        if (reloadIntervalSeconds > 0) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("category-rules-reload").daemon(true).factory());
+            reloadExecutor.scheduleWithFixedDelay(this::reloadIfModified,
+                    reloadIntervalSeconds, reloadIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 按当前规则给照片分类。
+     * @param labelNames Rekognition 返回的标签名 (大小写不敏感)
+     * @param hasTextLine 是否检测到了整行文字
+     * @return 匹配的分类，按规则顺序
+     */
+    public List<String> classify(Collection<String> labelNames, boolean hasTextLine) {
+        return compiled.classify(labelNames, hasTextLine);
+    }
+
+    /**
+     * 当前规则的版本号，每次成功重新加载加一。
+     */
+    public long version() {
+        return compiled.version();
+    }
+
+    /**
+     * 立即重新加载规则文件。
+     * @return 是否加载成功；失败时继续使用旧规则
+     */
+    public boolean reload() {
+        try {
+            load(resourceLoader.getResource(location));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("重新加载分类规则 {} 失败，继续使用旧规则: {}", location, e.getMessage());
+            return false;
+        }
+    }
+
+    private void reloadIfModified() {
+        try {
+            long lastModified = resourceLoader.getResource(location).lastModified();
+            if (lastModified != checkedLastModified) {
+                logger.info("分类规则文件 {} 已修改，重新加载。", location);
+                checkedLastModified = lastModified;
+                if (!reload()) {
+                    logger.warn("分类规则文件 {} 修改后才会再次尝试加载。", location);
+                }
+            }
+        } catch (IOException e) {
+            // 资源不支持修改时间 (例如打包在 jar 内) 时无法自动重新加载
+            logger.debug("无法读取分类规则文件 {} 的修改时间: {}", location, e.getMessage());
+        }
+    }
+
+    private synchronized void load(Resource resource) throws IOException {
+        long lastModified = lastModifiedOf(resource);
+        RuleSet ruleSet;
+        try (InputStream in = resource.getInputStream()) {
+            ruleSet = objectMapper.readValue(in, RuleSet.class);
+        }
+        long version = compiled == null ? 1 : compiled.version() + 1;
+        compiled = CompiledRules.compile(ruleSet, version);
+        checkedLastModified = lastModified;
+        logger.info("已加载分类规则 {} (版本 {})：{} 条规则，{} 个标签。",
+                location, version, compiled.categories.length, compiled.dictionary.size());
+    }
+
+    private static long lastModifiedOf(Resource resource) {
+        try {
+            return resource.lastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 编译后的规则，创建后不再修改，可以被多个线程同时使用。
+     */
+    private static final class CompiledRules {
+
+        private final long version;
+        private final Map<String, Integer> dictionary;
+        private final int words;
+        private final String[] categories;
+        private final long[][] anyMasks;
+        // 每条规则的子句：allMasks[i][j] / noneMasks[i][j] 是第 i 条规则第 j 个子句的掩码
+        private final long[][][] allMasks;
+        private final long[][][] noneMasks;
+        private final boolean[] requireTextLine;
+        private final String fallback;
+
+        private CompiledRules(long version, Map<String, Integer> dictionary, String[] categories, long[][] anyMasks,
+                              long[][][] allMasks, long[][][] noneMasks, boolean[] requireTextLine, String fallback) {
+            this.version = version;
+            this.dictionary = dictionary;
+            this.words = wordsFor(dictionary.size());
+            this.categories = categories;
+            this.anyMasks = anyMasks;
+            this.allMasks = allMasks;
+            this.noneMasks = noneMasks;
+            this.requireTextLine = requireTextLine;
+            this.fallback = fallback;
+        }
+
+        /**
+         * @throws IllegalArgumentException 规则不完整
+         */
+        static CompiledRules compile(RuleSet ruleSet, long version) {
+            if (ruleSet == null || ruleSet.rules() == null || ruleSet.rules().isEmpty()) {
+                throw new IllegalArgumentException("分类规则为空");
+            }
+            Map<String, Integer> dictionary = new HashMap<>();
+            for (Rule rule : ruleSet.rules()) {
+                if (rule.category() == null || rule.category().isBlank()) {
+                    throw new IllegalArgumentException("分类规则缺少 category");
+                }
+                if (isEmpty(rule.any()) && isEmpty(rule.clauses())) {
+                    throw new IllegalArgumentException("分类 " + rule.category() + " 没有任何 any 标签或子句");
+                }
+                intern(dictionary, rule.any());
+                if (rule.clauses() != null) {
+                    for (Clause clause : rule.clauses()) {
+                        if (isEmpty(clause.all())) {
+                            throw new IllegalArgumentException("分类 " + rule.category() + " 的子句缺少 all 标签");
+                        }
+                        intern(dictionary, clause.all());
+                        intern(dictionary, clause.none());
+                    }
+                }
+            }
+
+            int ruleCount = ruleSet.rules().size();
+            int words = wordsFor(dictionary.size());
+            String[] categories = new String[ruleCount];
+            long[][] anyMasks = new long[ruleCount][];
+            long[][][] allMasks = new long[ruleCount][][];
+            long[][][] noneMasks = new long[ruleCount][][];
+            boolean[] requireTextLine = new boolean[ruleCount];
+            for (int i = 0; i < ruleCount; i++) {
+                Rule rule = ruleSet.rules().get(i);
+                categories[i] = rule.category();
+                anyMasks[i] = mask(dictionary, rule.any(), words);
+                List<Clause> clauses = rule.clauses() == null ? List.of() : rule.clauses();
+                allMasks[i] = new long[clauses.size()][];
+                noneMasks[i] = new long[clauses.size()][];
+                for (int j = 0; j < clauses.size(); j++) {
+                    allMasks[i][j] = mask(dictionary, clauses.get(j).all(), words);
+                    noneMasks[i][j] = mask(dictionary, clauses.get(j).none(), words);
+                }
+                requireTextLine[i] = rule.requireTextLine();
+            }
+            String fallback = ruleSet.fallback() == null || ruleSet.fallback().isBlank() ? null : ruleSet.fallback();
+            return new CompiledRules(version, Map.copyOf(dictionary), categories, anyMasks,
+                    allMasks, noneMasks, requireTextLine, fallback);
+        }
+
+        long version() {
+            return version;
+        }
+
+        List<String> classify(Collection<String> labelNames, boolean hasTextLine) {
+            // 不在字典中的标签与任何规则都无关，直接忽略
+            long[] labels = new long[words];
+            for (String name : labelNames) {
+                Integer bit = dictionary.get(name.toLowerCase(Locale.ROOT));
+                if (bit != null) {
+                    labels[bit >>> 6] |= 1L << bit;
+                }
+            }
+
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < categories.length; i++) {
+                if (requireTextLine[i] && !hasTextLine) {
+                    continue;
+                }
+                if (intersects(labels, anyMasks[i]) || anyClauseMatches(labels, allMasks[i], noneMasks[i])) {
+                    result.add(categories[i]);
+                }
+            }
+            if (result.isEmpty() && fallback != null) {
+                result.add(fallback);
+            }
+            return result;
+        }
+
+        private static boolean anyClauseMatches(long[] labels, long[][] allMasks, long[][] noneMasks) {
+            for (int j = 0; j < allMasks.length; j++) {
+                if (containsAll(labels, allMasks[j]) && !intersects(labels, noneMasks[j])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean intersects(long[] labels, long[] mask) {
+            for (int w = 0; w < mask.length; w++) {
+                if ((labels[w] & mask[w]) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean containsAll(long[] labels, long[] mask) {
+            for (int w = 0; w < mask.length; w++) {
+                if ((labels[w] & mask[w]) != mask[w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void intern(Map<String, Integer> dictionary, List<String> labels) {
+            if (labels != null) {
+                for (String label : labels) {
+                    dictionary.putIfAbsent(label.toLowerCase(Locale.ROOT), dictionary.size());
+                }
+            }
+        }
+
+        private static long[] mask(Map<String, Integer> dictionary, List<String> labels, int words) {
+            long[] mask = new long[words];
+            if (labels != null) {
+                for (String label : labels) {
+                    int bit = dictionary.get(label.toLowerCase(Locale.ROOT));
+                    mask[bit >>> 6] |= 1L << bit;
+                }
+            }
+            return mask;
+        }
+
+        private static int wordsFor(int bits) {
+            return Math.max(1, (bits + 63) >>> 6);
+        }
+
+        private static boolean isEmpty(List<?> list) {
+            return list == null || list.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.Comment;
+import com.caihuan.photo_app_backend.payload.response.CommentPageResponse;
+import com.caihuan.photo_app_backend.repository.CommentRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 评论的只读查询
+ * 分享页用一次分组查询拿到整个相册每张照片的评论数，
+ * 展开某张照片时再按 (创建时间, ID) 键集分页读取评论。
+ */
+@Service
+@RequiredArgsConstructor
+public class CommentQueryService {
+
+    private final CommentRepository commentRepository;
+
+    // 单页最多返回的评论数
+    @Value("${photoapp.comments.max-page-size:100}")
+    private int maxPageSize;
+
+    /**
+     * 相册中每张照片的评论数，没有评论的照片不在结果中。
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Long> countByAlbum(Long albumId) {
+        Map<Long, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : commentRepository.countByAlbumId(albumId)) {
+            counts.put((Long) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    /**
+     * 分页读取一张照片的评论，按发表时间从早到晚。
+     * @param cursor 上一页返回的游标，第一页传 null
+     * @throws IllegalArgumentException 游标无效
+     */
+    @Transactional(readOnly = true)
+    public CommentPageResponse listPhotoComments(Long photoId, String cursor, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        Instant afterCreatedAt = Instant.EPOCH;
+        long afterId = 0L;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+                afterCreatedAt = Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                afterId = Long.parseLong(parts[2]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的分页游标: " + cursor, e);
+            }
+        }
+
+        // 多取一条用来判断是否还有下一页
+        List<Comment> comments = commentRepository.findPageByPhotoId(photoId, afterCreatedAt, afterId,
+                PageRequest.ofSize(pageSize + 1));
+        String nextCursor = null;
+        if (comments.size() > pageSize) {
+            comments = new ArrayList<>(comments.subList(0, pageSize));
+            Comment last = comments.get(pageSize - 1);
+            String raw = last.getCreatedAt().getEpochSecond() + ":" + last.getCreatedAt().getNano() + ":" + last.getId();
+            nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        return new CommentPageResponse(comments, nextCursor);
+    }
+}
@@ -0,0 +1,171 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.StoredObject;
+import com.caihuan.photo_app_backend.repository.StoredObjectRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 按内容寻址、带引用计数的对象存储
+ * 开启后，同步上来的缩略图/预览图以服务端计算的内容 SHA-256 作为 S3 Key，
+ * 同一张照片重复同步到多个相册时只上传、只存储一份。
+ * Key 不能来自客户端声明的哈希：否则任何人都可以抢先用别人照片的哈希上传任意内容，
+ * 之后同步这张照片的所有相册都会跳过上传并引用这份内容。
+ * 所有删除路径都通过 releaseObjects 进行：引用计数归零才真正删除对象，
+ * 没有引用计数记录的旧对象 (随机 Key) 保持原来的直接删除行为。
+ */
+@Service
+@RequiredArgsConstructor
+public class ContentAddressedStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedStorageService.class);
+
+    private static final String KEY_PREFIX = "cas/";
+    private static final String THUMBNAIL_SUFFIX = "/thumb.jpg";
+    private static final String ANALYSIS_SUFFIX = "/analysis.jpg";
+
+    private final S3Service s3Service;
+    private final StoredObjectRepository storedObjectRepository;
+
+    @Value("${photoapp.storage.content-addressed:false}")
+    private boolean enabled;
+
+    /**
+     * 图片内容，可以多次打开 (先计算哈希，需要上传时再读一遍)。
+     */
+    @FunctionalInterface
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 以内容寻址方式存储缩略图，返回其URL (与 S3Service.uploadThumbnail 返回的格式一致)。
+     */
+    public String storeThumbnail(ContentSource content, long contentLength) throws IOException {
+        return s3Service.getObjectUrl(store(keyFor(content, THUMBNAIL_SUFFIX), content, contentLength));
+    }
+
+    /**
+     * 以内容寻址方式存储AI分析用的预览图，返回其 Key。
+     */
+    public String storeAnalysisImage(ContentSource content, long contentLength) throws IOException {
+        return store(keyFor(content, ANALYSIS_SUFFIX), content, contentLength);
+    }
+
+    /**
+     * 先登记一次引用，再在对象不存在时上传。
+     * 先登记后检查的顺序保证：与之并发的 releaseObjects 要么看到这次引用而不删除，
+     * 要么在我们检查之前已经删掉了对象，此时我们会重新上传。
+     */
+    private String store(String key, ContentSource content, long contentLength) throws IOException {
+        storedObjectRepository.acquire(key);
+        try {
+            if (s3Service.objectExists(key)) {
+                logger.debug("内容寻址对象 [{}] 已存在，跳过上传。", key);
+            } else {
+                try (InputStream in = content.open()) {
+                    s3Service.uploadToKey(key, in, contentLength);
+                }
+            }
+            return key;
+        } catch (IOException | RuntimeException e) {
+            // 上传失败时撤销本次引用；S3 的 PUT 是原子的，失败不会留下半个对象
+            storedObjectRepository.decrement(key);
+            storedObjectRepository.deleteIfUnreferenced(key);
+            throw e;
+        }
+    }
+
+    /**
+     * 内容寻址的预览图 Key 中记录的内容 SHA-256 (十六进制)，不是这类 Key 时返回 empty。
+     */
+    public static Optional<String> contentHashOf(String key) {
+        if (key == null || !key.startsWith(KEY_PREFIX) || !key.endsWith(ANALYSIS_SUFFIX)) {
+            return Optional.empty();
+        }
+        String hash = key.substring(KEY_PREFIX.length(), key.length() - ANALYSIS_SUFFIX.length());
+        return hash.length() == 64 ? Optional.of(hash) : Optional.empty();
+    }
+
+    private String keyFor(ContentSource content, String suffix) throws IOException {
+        return KEY_PREFIX + sha256Hex(content) + suffix;
+    }
+
+    static String sha256Hex(ContentSource content) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(content.open(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 释放一批对象的引用并删除不再被引用的对象。
+     * 同一个 Key 出现几次就释放几次 (例如一个相册里两张照片共享同一个缩略图)。
+     * 没有引用计数记录的 Key 视为独占对象，直接删除。
+     * 在持有行锁的事务内删除S3对象，避免与并发的 store 交错。
+     */
+    @Transactional
+    public void releaseObjects(Collection<String> keys) {
+        Map<String, Long> releaseCounts = keys.stream()
+                .filter(Objects::nonNull)
+                .filter(key -> !key.isEmpty())
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        if (releaseCounts.isEmpty()) {
+            return;
+        }
+
+        Map<String, StoredObject> tracked = storedObjectRepository.findAllForUpdate(releaseCounts.keySet()).stream()
+                .collect(Collectors.toMap(StoredObject::getObjectKey, Function.identity()));
+
+        List<String> keysToDelete = new ArrayList<>();
+        releaseCounts.forEach((key, count) -> {
+            StoredObject storedObject = tracked.get(key);
+            if (storedObject == null) {
+                keysToDelete.add(key);
+                return;
+            }
+            storedObject.setRefCount(storedObject.getRefCount() - count);
+            if (storedObject.getRefCount() <= 0) {
+                storedObjectRepository.delete(storedObject);
+                keysToDelete.add(key);
+            }
+        });
+
+        if (!keysToDelete.isEmpty()) {
+            s3Service.deleteObjects(keysToDelete);
+        }
+        logger.info("释放了 {} 个对象引用，其中 {} 个对象已无引用并被删除。", releaseCounts.size(), keysToDelete.size());
+    }
+}
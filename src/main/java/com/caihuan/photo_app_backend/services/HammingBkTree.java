@@ -0,0 +1,132 @@
+package com.caihuan.photo_app_backend.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 以汉明距离为度量的 BK 树，保存 64 位感知哈希
+ * 哈希完全相同的照片共用一个节点；每个节点有一个从 0 开始的序号，方便调用方按节点做并查集。
+ * 非线程安全，由调用方加锁。
+ */
+public class HammingBkTree {
+
+    /**
+     * 树中的一个节点：一个不同的哈希值，以及拥有这个哈希的所有照片ID。
+     */
+    public static final class Node {
+        private final int ordinal;
+        private final long hash;
+        private long[] ids = new long[1];
+        private int idCount;
+        private Map<Integer, Node> children;
+
+        private Node(int ordinal, long hash) {
+            this.ordinal = ordinal;
+            this.hash = hash;
+        }
+
+        public int ordinal() {
+            return ordinal;
+        }
+
+        public long hash() {
+            return hash;
+        }
+
+        public long[] ids() {
+            return Arrays.copyOf(ids, idCount);
+        }
+
+        private void addId(long id) {
+            if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, idCount * 2);
+            }
+            ids[idCount++] = id;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private Node root;
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    public void add(long hash, long id) {
+        if (root == null) {
+            root = newNode(hash);
+            root.addId(id);
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = distance(node.hash, hash);
+            if (d == 0) {
+                node.addId(id);
+                return;
+            }
+            if (node.children == null) {
+                node.children = new HashMap<>(4);
+            }
+            Node child = node.children.get(d);
+            if (child == null) {
+                child = newNode(hash);
+                child.addId(id);
+                node.children.put(d, child);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 查找与给定哈希距离不超过 radius 的所有节点 (包括哈希相同的节点)。
+     * 利用三角不等式：只有距离落在 [d - radius, d + radius] 的子树才可能有结果。
+     */
+    public List<Node> search(long hash, int radius) {
+        List<Node> result = new ArrayList<>();
+        if (root == null) {
+            return result;
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int d = distance(node.hash, hash);
+            if (d <= radius) {
+                result.add(node);
+            }
+            if (node.children == null) {
+                continue;
+            }
+            for (int childDistance = Math.max(1, d - radius); childDistance <= d + radius; childDistance++) {
+                Node child = node.children.get(childDistance);
+                if (child != null) {
+                    stack.push(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<Node> nodes() {
+        return nodes;
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    private Node newNode(long hash) {
+        Node node = new Node(nodes.size(), hash);
+        nodes.add(node);
+        return node;
+    }
+}
@@ -1,19 +1,35 @@
 package com.caihuan.photo_app_backend.services;
 
 import com.caihuan.photo_app_backend.payload.response.ImageAnalysisResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
 import software.amazon.awssdk.services.rekognition.model.*;
 
-import javax.annotation.PostConstruct;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -21,118 +37,279 @@ import java.util.stream.Collectors;
 public class ImageAnalysisService {
 
     private final RekognitionClient rekognitionClient;
+    private final ObjectStorage storage;
+    private final AnalysisResultCacheService analysisCache;
+    private final RenditionService renditionService;
+    private final CategoryRuleEngine categoryRuleEngine;
+    private final MeterRegistry meterRegistry;
     private static final Logger logger = LoggerFactory.getLogger(ImageAnalysisService.class);
 
-    @Value("${AWS_S3_BUCKET_NAME}")
-    private String bucketName;
+    // Rekognition 直接接收图片字节时的大小上限
+    private static final long MAX_INLINE_IMAGE_BYTES = 5L * 1024 * 1024;
+
+    // 是否并发发出 DetectLabels / DetectFaces / DetectText 三个调用
+    @Value("${photoapp.rekognition.concurrent:true}")
+    private boolean concurrentAnalysis;
+
+    // 单个 Rekognition 调用的超时时间 (毫秒)
+    @Value("${photoapp.rekognition.call-timeout-ms:15000}")
+    private long callTimeoutMs;
+
+    // 三个调用都是阻塞IO，每个调用一个虚拟线程即可，无需池化
+    private final ExecutorService rekognitionExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @PostConstruct
     public void init() {
-        logger.info("初始化 ImageAnalysisService... 读取到的 S3 桶名是: '{}'", bucketName);
+        logger.info("初始化 ImageAnalysisService... Rekognition 读取的 S3 桶名是: '{}', 并发分析模式: {}",
+                storage.rekognitionBucket() == null ? "(无，发送图片字节)" : storage.rekognitionBucket(), concurrentAnalysis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rekognitionExecutor.shutdownNow();
+    }
+
+    /**
+     * 分析存储中的一张图片。开启分析结果缓存时按图片内容的 SHA-256 查缓存，
+     * 同样内容的图片分析过就直接返回缓存的结果。
+     * @param contentSha256 上传时记录的图片 SHA-256 (十六进制)。为 null 时先尝试从内容寻址的 Key 中取得，
+     *                      都没有 (旧照片) 才读出整张图片计算
+     */
+    public ImageAnalysisResponse analyzeImageFromS3(String objectKey, String contentSha256) throws IOException {
+        if (!analysisCache.isEnabled()) {
+            return analyzeObject(objectKey, null);
+        }
+        String contentHash = contentSha256 != null
+                ? contentSha256
+                : ContentAddressedStorageService.contentHashOf(objectKey).orElse(null);
+        byte[] imageBytes = null;
+        if (contentHash == null) {
+            imageBytes = readObject(objectKey);
+            contentHash = AnalysisResultCacheService.sha256Hex(imageBytes);
+        }
+        Optional<ImageAnalysisResponse> cached = analysisCache.find(contentHash);
+        if (cached.isPresent()) {
+            logger.debug("图片 {} (SHA-256: {}) 命中分析结果缓存，跳过 Rekognition 调用", objectKey, contentHash);
+            return reclassify(cached.get());
+        }
+        ImageAnalysisResponse response = analyzeObject(objectKey, imageBytes);
+        analysisCache.put(contentHash, response);
+        return response;
     }
 
-    public ImageAnalysisResponse analyzeImageFromS3(String objectKey) throws IOException {
+    /**
+     * 直接分析客户端上传的图片字节，不经过存储。
+     * 图片先在服务端缩小到与批量同步预览图相同的尺寸 (最长边 1280px，Rekognition 在这个尺寸下已能完整识别)，
+     * 再随请求发给 Rekognition；缩小后的字节同时作为分析结果缓存的键。
+     * @throws java.util.concurrent.RejectedExecutionException 渲染队列已满
+     */
+    public ImageAnalysisResponse analyzeImageBytes(byte[] imageBytes) throws IOException {
+        byte[] analysisImage = renditionService.renderForAnalysis(imageBytes, MAX_INLINE_IMAGE_BYTES);
+        String contentHash = analysisCache.isEnabled() ? AnalysisResultCacheService.sha256Hex(analysisImage) : null;
+        if (contentHash != null) {
+            Optional<ImageAnalysisResponse> cached = analysisCache.find(contentHash);
+            if (cached.isPresent()) {
+                logger.debug("上传的图片 (SHA-256: {}) 命中分析结果缓存，跳过 Rekognition 调用", contentHash);
+                return reclassify(cached.get());
+            }
+        }
+        ImageAnalysisResponse response;
         try {
-            S3Object s3Object = S3Object.builder().bucket(bucketName).name(objectKey).build();
-            Image imageToAnalyze = Image.builder().s3Object(s3Object).build();
-
-            // API请求部分保持不变
-            DetectLabelsRequest labelsRequest = DetectLabelsRequest.builder()
-                    .image(imageToAnalyze)
-                    .maxLabels(20) // 增加标签数量以提高分类准确性
-                    .minConfidence(70F).build();
-
-            DetectFacesRequest facesRequest = DetectFacesRequest.builder()
-                    .image(imageToAnalyze)
-                    .attributes(Attribute.ALL).build();
-
-            DetectTextRequest textRequest = DetectTextRequest.builder().image(imageToAnalyze).build();
-
-            DetectLabelsResponse labelsResponse = rekognitionClient.detectLabels(labelsRequest);
-            DetectFacesResponse facesResponse = rekognitionClient.detectFaces(facesRequest);
-            DetectTextResponse textResponse = rekognitionClient.detectText(textRequest);
-
-            // --- 数据提取与全新分类逻辑 ---
-
-            List<Label> rawLabels = labelsResponse.labels();
-            List<String> labelNames = rawLabels.stream().map(Label::name).collect(Collectors.toList());
-
-            // 【核心升级】调用全新的多维度分类方法
-            List<String> categories = classifyPhoto(rawLabels, textResponse.textDetections());
-
-            String detectedText = textResponse.textDetections().stream()
-                    .filter(td -> td.type() == TextTypes.LINE && td.confidence() > 75F)
-                    .map(TextDetection::detectedText)
-                    .collect(Collectors.joining("\n"));
-
-            List<FaceDetail> faceDetails = facesResponse.faceDetails();
-            Integer faceCount = faceDetails.size();
-            boolean allFacesSmiling = !faceDetails.isEmpty() && faceDetails.stream()
-                    .allMatch(face -> face.smile() != null && face.smile().value());
-            boolean allEyesOpen = !faceDetails.isEmpty() && faceDetails.stream()
-                    .allMatch(face -> face.eyesOpen() != null && face.eyesOpen().value());
-
-            // 返回给PhotoService的数据结构，增加了categories列表
-            return ImageAnalysisResponse.builder()
-                    .labels(labelNames)       // 返回原始标签列表
-                    .categories(categories)   // 【新增】返回计算出的分类列表
-                    .detectedText(detectedText)
-                    .faceCount(faceCount)
-                    .allFacesSmiling(allFacesSmiling)
-                    .allEyesOpen(allEyesOpen)
-                    .build();
+            response = analyzeImage(Image.builder().bytes(SdkBytes.fromByteArray(analysisImage)).build());
+        } catch (RekognitionException e) {
+            logger.error("AWS Rekognition 字节分析模式失败: {}", e.awsErrorDetails().errorMessage());
+            throw new IOException("AWS Rekognition 字节分析模式失败", e);
+        } catch (SdkClientException e) {
+            logger.error("AWS Rekognition 字节分析模式调用失败: {}", e.getMessage());
+            throw new IOException("AWS Rekognition 字节分析模式调用失败", e);
+        }
+        if (contentHash != null) {
+            analysisCache.put(contentHash, response);
+        }
+        return response;
+    }
 
+    private ImageAnalysisResponse analyzeObject(String objectKey, byte[] imageBytes) throws IOException {
+        try {
+            return analyzeImage(imageOf(objectKey, imageBytes));
         } catch (RekognitionException e) {
             logger.error("AWS Rekognition S3 分析模式失败 (Key: {}): {}", objectKey, e.awsErrorDetails().errorMessage());
             throw new IOException("AWS Rekognition S3 分析模式失败", e);
+        } catch (SdkClientException e) {
+            logger.error("AWS Rekognition S3 分析模式调用失败 (Key: {}): {}", objectKey, e.getMessage());
+            throw new IOException("AWS Rekognition S3 分析模式调用失败", e);
         }
     }
 
     /**
-     * 【全新多维度分类方法】
-     * 根据标签和文字，为照片打上多个分类标签
-     * @param labels AWS返回的原始Label对象列表
-     * @param textDetections AWS返回的文字检测结果
-     * @return 一个包含所有匹配分类的字符串列表
+     * 存储在 S3 上时让 Rekognition 直接按引用读取；其他存储后端把图片字节随请求一起发送。
+     * @param imageBytes 已经读出的图片字节，没有时为 null
      */
-    private List<String> classifyPhoto(List<Label> labels, List<TextDetection> textDetections) {
-        Set<String> labelSet = labels.stream()
-                .map(label -> label.name().toLowerCase())
-                .collect(Collectors.toSet());
-
-        List<String> categories = new ArrayList<>();
-
-        // --- 维度一: 内容主题 ---
-        if (labelSet.contains("person") || labelSet.contains("face") || labelSet.contains("portrait")) categories.add("人像");
-        if (labelSet.contains("landscape") || labelSet.contains("nature") || labelSet.contains("sky") || labelSet.contains("mountain") || labelSet.contains("sea")) categories.add("风景");
-        if (labelSet.contains("architecture") || labelSet.contains("building") || labelSet.contains("cityscape")) categories.add("建筑");
-        if (labelSet.contains("animal") || labelSet.contains("pet") || labelSet.contains("dog") || labelSet.contains("cat") || labelSet.contains("bird")) categories.add("动物");
-        if (labelSet.contains("food") || labelSet.contains("dining") || labelSet.contains("dessert") || labelSet.contains("drink") || labelSet.contains("restaurant")) categories.add("美食");
-        if (labelSet.contains("car") || labelSet.contains("vehicle") || labelSet.contains("train") || labelSet.contains("airplane") || labelSet.contains("boat") || labelSet.contains("bicycle")) categories.add("交通工具");
-        if (labelSet.contains("flower") || labelSet.contains("plant") && !labelSet.contains("potted plant")) categories.add("自然细节");
-        if (labelSet.contains("sports") || labelSet.contains("stadium") || labelSet.contains("soccer") || labelSet.contains("basketball")) categories.add("体育运动");
-
-        // --- 维度二: 事件与场合 ---
-        if (labelSet.contains("party") || labelSet.contains("celebration") || labelSet.contains("birthday cake") || labelSet.contains("balloons") || labelSet.contains("confetti")) categories.add("派对与庆祝");
-        if (labelSet.contains("concert") || labelSet.contains("stage") || labelSet.contains("performance") || labelSet.contains("crowd") || labelSet.contains("musical instrument")) categories.add("演出活动");
-        if (labelSet.contains("fireworks")) categories.add("节日烟火");
-        if (labelSet.contains("christmas tree")) categories.add("节日");
-
-
-        // --- 维度三: 照片属性与用途 ---
-        // 通过检测到的文字数量和标签来判断
-        boolean hasSignificantText = textDetections.stream().anyMatch(td -> td.type() == TextTypes.LINE);
-        if (hasSignificantText && (labelSet.contains("text") || labelSet.contains("document") || labelSet.contains("paper") || labelSet.contains("screenshot") || labelSet.contains("receipt"))) {
-            categories.add("文档与截图");
+    private Image imageOf(String objectKey, byte[] imageBytes) throws IOException {
+        String bucketName = storage.rekognitionBucket();
+        if (bucketName != null) {
+            S3Object s3Object = S3Object.builder().bucket(bucketName).name(objectKey).build();
+            return Image.builder().s3Object(s3Object).build();
         }
-        if (labelSet.contains("monochrome") || labelSet.contains("black and white")) categories.add("黑白照片");
-        if (labelSet.contains("panorama")) categories.add("全景照片");
+        return Image.builder().bytes(SdkBytes.fromByteArray(imageBytes != null ? imageBytes : readObject(objectKey))).build();
+    }
 
-        // 如果没有任何特定分类，则归为“其他”
-        if (categories.isEmpty()) {
-            categories.add("其他");
+    private byte[] readObject(String objectKey) throws IOException {
+        try (InputStream in = storage.get(objectKey)) {
+            return in.readAllBytes();
         }
+    }
+
+    /**
+     * 对一张图片发出三个 Rekognition 调用，并把结果合并成一个 ImageAnalysisResponse。
+     * 并发模式下三个调用同时发出，单张照片的耗时约等于最慢的那一个调用。
+     */
+    private ImageAnalysisResponse analyzeImage(Image imageToAnalyze) throws IOException {
+        // API请求部分保持不变，只是为每个调用加上超时
+        DetectLabelsRequest labelsRequest = DetectLabelsRequest.builder()
+                .image(imageToAnalyze)
+                .maxLabels(20) // 增加标签数量以提高分类准确性
+                .minConfidence(70F)
+                .overrideConfiguration(this::withCallTimeout)
+                .build();
+
+        DetectFacesRequest facesRequest = DetectFacesRequest.builder()
+                .image(imageToAnalyze)
+                .attributes(Attribute.ALL)
+                .overrideConfiguration(this::withCallTimeout)
+                .build();
+
+        DetectTextRequest textRequest = DetectTextRequest.builder()
+                .image(imageToAnalyze)
+                .overrideConfiguration(this::withCallTimeout)
+                .build();
+
+        if (!concurrentAnalysis) {
+            return buildResponse(
+                    timed("DetectLabels", () -> rekognitionClient.detectLabels(labelsRequest)),
+                    timed("DetectFaces", () -> rekognitionClient.detectFaces(facesRequest)),
+                    timed("DetectText", () -> rekognitionClient.detectText(textRequest)));
+        }
+
+        CompletableFuture<DetectLabelsResponse> labelsFuture =
+                CompletableFuture.supplyAsync(() -> timed("DetectLabels", () -> rekognitionClient.detectLabels(labelsRequest)), rekognitionExecutor);
+        CompletableFuture<DetectFacesResponse> facesFuture =
+                CompletableFuture.supplyAsync(() -> timed("DetectFaces", () -> rekognitionClient.detectFaces(facesRequest)), rekognitionExecutor);
+        CompletableFuture<DetectTextResponse> textFuture =
+                CompletableFuture.supplyAsync(() -> timed("DetectText", () -> rekognitionClient.detectText(textRequest)), rekognitionExecutor);
 
-        return categories;
+        try {
+            CompletableFuture.allOf(labelsFuture, facesFuture, textFuture).join();
+            return buildResponse(labelsFuture.join(), facesFuture.join(), textFuture.join());
+        } catch (CompletionException e) {
+            // 任意一个调用失败，其余调用的结果也没有意义了
+            labelsFuture.cancel(true);
+            facesFuture.cancel(true);
+            textFuture.cancel(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof SdkException sdkException) {
+                throw sdkException;
+            }
+            throw new IOException("AWS Rekognition 并发分析失败", cause);
+        }
+    }
+
+    private void withCallTimeout(AwsRequestOverrideConfiguration.Builder builder) {
+        builder.apiCallTimeout(Duration.ofMillis(callTimeoutMs));
+    }
+
+    /**
+     * 执行一个 Rekognition 调用并记录耗时 (rekognition.requests，按调用和结果打标签)。
+     * 结果为 throttled 的次数可以直接用来对限流告警。
+     */
+    private <T> T timed(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("rekognition.requests")
+                    .description("Rekognition 调用耗时")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private static String outcomeOf(RuntimeException e) {
+        if (e instanceof ThrottlingException
+                || e instanceof ProvisionedThroughputExceededException
+                || e instanceof LimitExceededException) {
+            return "throttled";
+        }
+        if (e instanceof ApiCallTimeoutException || e instanceof ApiCallAttemptTimeoutException) {
+            return "timeout";
+        }
+        if (e instanceof AwsServiceException serviceException && serviceException.statusCode() >= 500) {
+            return "server_error";
+        }
+        return "error";
+    }
+
+    private ImageAnalysisResponse buildResponse(DetectLabelsResponse labelsResponse,
+                                                DetectFacesResponse facesResponse,
+                                                DetectTextResponse textResponse) {
+        // --- 数据提取与全新分类逻辑 ---
+
+        List<Label> rawLabels = labelsResponse.labels();
+        List<String> labelNames = rawLabels.stream().map(Label::name).collect(Collectors.toList());
+
+        // 【核心升级】调用全新的多维度分类方法
+        // 通过检测到的文字数量和标签来判断
+        boolean hasSignificantText = textResponse.textDetections().stream().anyMatch(td -> td.type() == TextTypes.LINE);
+        List<String> categories = classifyPhoto(labelNames, hasSignificantText);
+
+        String detectedText = textResponse.textDetections().stream()
+                .filter(td -> td.type() == TextTypes.LINE && td.confidence() > 75F)
+                .map(TextDetection::detectedText)
+                .collect(Collectors.joining("\n"));
+
+        List<FaceDetail> faceDetails = facesResponse.faceDetails();
+        Integer faceCount = faceDetails.size();
+        boolean allFacesSmiling = !faceDetails.isEmpty() && faceDetails.stream()
+                .allMatch(face -> face.smile() != null && face.smile().value());
+        boolean allEyesOpen = !faceDetails.isEmpty() && faceDetails.stream()
+                .allMatch(face -> face.eyesOpen() != null && face.eyesOpen().value());
+
+        // 返回给PhotoService的数据结构，增加了categories列表
+        return ImageAnalysisResponse.builder()
+                .labels(labelNames)       // 返回原始标签列表
+                .categories(categories)   // 【新增】返回计算出的分类列表
+                .detectedText(detectedText)
+                .textLineDetected(hasSignificantText)
+                .faceCount(faceCount)
+                .allFacesSmiling(allFacesSmiling)
+                .allEyesOpen(allEyesOpen)
+                .build();
+    }
+
+    /**
+     * 【全新多维度分类方法】
+     * 根据标签和文字，为照片打上多个分类标签 (规则见 category-rules.json)
+     * @param labelNames AWS返回的原始标签名
+     * @param hasSignificantText 是否检测到了整行文字
+     * @return 一个包含所有匹配分类的字符串列表
+     */
+    private List<String> classifyPhoto(List<String> labelNames, boolean hasSignificantText) {
+        return categoryRuleEngine.classify(labelNames, hasSignificantText);
+    }
+
+    /**
+     * 缓存的分析结果按当前规则重新分类，规则修改后不需要重新调用 Rekognition。
+     * 没有记录文字检测结果的旧缓存保留原来的分类。
+     */
+    private ImageAnalysisResponse reclassify(ImageAnalysisResponse cached) {
+        if (cached.getTextLineDetected() != null && cached.getLabels() != null) {
+            cached.setCategories(classifyPhoto(cached.getLabels(), cached.getTextLineDetected()));
+        }
+        return cached;
     }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 图片的本地磁盘缓存
+ * 缩略图和分享图第一次被请求时从S3下载到本地目录，之后直接从磁盘读取。
+ * 缓存总大小有上限，超出时由 Caffeine 按访问频率/时间淘汰并删除对应文件。
+ * 缓存里存的是下载的 future，下载在单独的虚拟线程中进行，不占着 Caffeine 的哈希桶锁，
+ * 一个慢下载不会阻塞落在同一个桶里的其他 Key。
+ * 缓存的 Key 都是不可变对象 (UUID 或内容哈希命名，写入后不会被覆盖)，因此可以用 Key 的哈希作为强 ETag。
+ */
+@Service
+@RequiredArgsConstructor
+public class ImageDiskCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDiskCacheService.class);
+
+    // 版本号取 Key 的 SHA-256 前 16 个十六进制字符
+    private static final int VERSION_LENGTH = 16;
+
+    private final S3Service s3Service;
+    private final MeterRegistry meterRegistry;
+
+    // 缓存目录，默认在系统临时目录下
+    @Value("${photoapp.image-cache.dir:${java.io.tmpdir}/photoapp-image-cache}")
+    private String cacheDir;
+
+    // 缓存占用的磁盘空间上限 (MB)
+    @Value("${photoapp.image-cache.max-size-mb:2048}")
+    private long maxSizeMb;
+
+    private Path root;
+    private AsyncCache<String, CachedImage> files;
+
+    // 从S3下载到磁盘，阻塞在网络IO上，用虚拟线程
+    private final ExecutorService downloadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * 缓存在磁盘上的一个对象。
+     * @param path 本地文件
+     * @param size 文件大小 (字节)
+     */
+    public record CachedImage(Path path, long size) {
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(cacheDir).toAbsolutePath();
+        Files.createDirectories(root);
+        // 按 KB 计权重，int 范围内可以表示 2TB
+        files = Caffeine.newBuilder()
+                .maximumWeight(maxSizeMb * 1024)
+                .weigher((String hash, CachedImage image) -> (int) Math.max(1, image.size() / 1024))
+                .removalListener((String hash, CachedImage image, RemovalCause cause) -> {
+                    if (image != null && cause.wasEvicted()) {
+                        deleteQuietly(image.path());
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+        restore();
+
+        Gauge.builder("image.cache.disk.size", files, cache -> cache.synchronous().policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("本地图片缓存占用的磁盘空间")
+                .baseUnit("kilobytes")
+                .register(meterRegistry);
+        Gauge.builder("image.cache.disk.hit.ratio", files, cache -> cache.synchronous().stats().hitRate())
+                .description("本地图片缓存命中率")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        downloadExecutor.shutdownNow();
+    }
+
+    /**
+     * 取得对象的本地文件，不在缓存中时从S3下载。同一个 Key 的并发请求只会下载一次。
+     * @param objectKey S3 Object Key
+     * @return 缓存的文件，对象在S3上不存在时返回 null
+     * @throws IOException 下载失败
+     */
+    public CachedImage get(String objectKey) throws IOException {
+        String hash = sha256Hex(objectKey);
+        // 映射里只登记 future，下载本身在 downloadExecutor 中进行；结果为 null (对象不存在) 时条目会被自动移除
+        CompletableFuture<CachedImage> image = files.get(hash,
+                (h, executor) -> CompletableFuture.supplyAsync(() -> download(objectKey, h), downloadExecutor));
+        try {
+            return image.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 文件在读取前被淘汰删除时调用，丢弃缓存条目，下次请求会重新下载。
+     */
+    public void invalidate(String objectKey) {
+        files.synchronous().invalidate(sha256Hex(objectKey));
+    }
+
+    /**
+     * 对象的版本号，用于拼在图片地址里：Key 变化 (例如上传了精修图) 时地址随之变化，浏览器可以永久缓存旧地址。
+     */
+    public static String versionOf(String objectKey) {
+        return sha256Hex(objectKey).substring(0, VERSION_LENGTH);
+    }
+
+    /**
+     * 对象的强 ETag (带引号)。
+     */
+    public static String etagOf(String objectKey) {
+        return "\"" + versionOf(objectKey) + "\"";
+    }
+
+    private CachedImage download(String objectKey, String hash) {
+        // 每次下载写入一个新文件名，避免被淘汰的旧文件的删除动作误删刚下载的文件
+        Path target = root.resolve(hash + "_" + UUID.randomUUID());
+        Path temp = root.resolve(target.getFileName() + ".tmp");
+        long startedAt = System.currentTimeMillis();
+        try {
+            if (!s3Service.downloadToFile(objectKey, temp)) {
+                return null;
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(target);
+            logger.debug("已缓存图片 [{}] 到本地磁盘 ({} 字节)，耗时 {} ms", objectKey, size, System.currentTimeMillis() - startedAt);
+            return new CachedImage(target, size);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 启动时把目录中已有的文件重新登记到缓存，未下载完成的临时文件和重复文件直接删除。
+     */
+    private void restore() throws IOException {
+        int restored = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path path : entries) {
+                String name = path.getFileName().toString();
+                int separator = name.indexOf('_');
+                if (name.endsWith(".tmp") || separator < VERSION_LENGTH || files.getIfPresent(name.substring(0, separator)) != null) {
+                    deleteQuietly(path);
+                    continue;
+                }
+                String hash = name.substring(0, separator);
+                files.put(hash, CompletableFuture.completedFuture(new CachedImage(path, Files.size(path))));
+                restored++;
+            }
+        }
+        logger.info("本地图片缓存目录 {}：恢复了 {} 个文件。", root, restored);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("删除缓存文件 {} 失败: {}", path, e.getMessage());
+        }
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
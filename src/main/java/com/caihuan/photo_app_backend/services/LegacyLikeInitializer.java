@@ -0,0 +1,44 @@
+package com.caihuan.photo_app_backend.services;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 应用启动时，把引入按访客点赞之前的“喜欢”标记转换为共享访客的点赞记录。
+ * 旧数据只有 is_liked_by_client 标记、点赞计数为 0，不转换的话取消点赞无法生效。
+ * 只处理计数为 0 的已喜欢照片，重复执行没有副作用。
+ */
+@Component
+@RequiredArgsConstructor
+public class LegacyLikeInitializer implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyLikeInitializer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public void run(String... args) {
+        try {
+            Integer migrated = transactionTemplate.execute(status -> {
+                jdbcTemplate.update(
+                        "INSERT IGNORE INTO photo_likes (photo_id, viewer_id, created_at) "
+                                + "SELECT id, ?, NOW() FROM photos WHERE is_liked_by_client = TRUE AND like_count = 0",
+                        PhotoLikeService.SHARED_VIEWER_ID);
+                return jdbcTemplate.update(
+                        "UPDATE photos SET like_count = 1 WHERE is_liked_by_client = TRUE AND like_count = 0");
+            });
+            if (migrated != null && migrated > 0) {
+                logger.info("已将 {} 张照片的旧“喜欢”标记转换为点赞记录。", migrated);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("无法转换旧的“喜欢”标记，请确认 photo_likes 表已创建: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.caihuan.photo_app_backend.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 基于本机文件系统的对象存储 (photoapp.storage.type=local)
+ * 对象按 Key 的 SHA-256 分成两级目录 (objects/ab/cd/)，避免单个目录下文件过多；
+ * 文件名是 Key 的 URL 安全 Base64 编码，列举时可以还原出 Key。
+ * 写入先落到临时文件再原子移动，读者不会看到写了一半的文件。
+ * 预签名地址由本服务的 /api/public/storage 接口提供，用 HMAC 签名校验。
+ */
+@Service
+@ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "local")
+public class LocalObjectStorage implements ObjectStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalObjectStorage.class);
+
+    public static final String SERVE_PATH = "/api/public/storage";
+
+    // 大多数文件系统的文件名上限是 255 字节
+    private static final int MAX_FILE_NAME_LENGTH = 255;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final Path objectsDir;
+    // 带校验和上传的对象，SHA-256 (Base64) 记在这里与对象同名的文件中，对应 S3 保存的 x-amz-checksum-sha256
+    private final Path checksumsDir;
+    private final Path tempDir;
+    private final String baseUrl;
+    private final SecretKeySpec signingKey;
+
+    // 流式上传在虚拟线程中把输入流写入文件
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public LocalObjectStorage(@Value("${photoapp.storage.local.root:${user.home}/photoapp-storage}") String root,
+                              @Value("${photoapp.storage.local.base-url:http://localhost:8080}") String baseUrl,
+                              @Value("${photoapp.storage.local.signing-secret:}") String signingSecret) throws IOException {
+        Path rootDir = Paths.get(root).toAbsolutePath();
+        this.objectsDir = Files.createDirectories(rootDir.resolve("objects"));
+        this.checksumsDir = Files.createDirectories(rootDir.resolve("checksums"));
+        this.tempDir = Files.createDirectories(rootDir.resolve("tmp"));
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+
+        byte[] secret;
+        if (signingSecret == null || signingSecret.isBlank()) {
+            // 没有配置密钥时随机生成，重启后之前签发的地址失效
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            logger.warn("未配置 photoapp.storage.local.signing-secret，使用随机密钥，重启后预签名地址会失效。");
+        } else {
+            secret = signingSecret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.signingKey = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        logger.info("使用本地文件系统对象存储: {}", rootDir);
+    }
+
+    @Override
+    public void put(String key, InputStream inputStream, long contentLength, String contentType) throws IOException {
+        write(key, inputStream);
+    }
+
+    @Override
+    public CompletableFuture<Void> putStreaming(String key, InputStream inputStream, Long contentLength, String contentType) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Future<?> task = streamExecutor.submit(() -> {
+            try {
+                write(key, inputStream);
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        // 取消时中断写盘线程，FileChannel 被中断后关闭，临时文件随之删除
+        result.whenComplete((ignored, e) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 写入一个对象，同时校验长度和 SHA-256 (预签名上传使用)。校验失败时对象不会被创建。
+     * @param expectedLength 期望的长度
+     * @param expectedSha256 期望的 SHA-256 (Base64)，为 null 时不校验
+     * @throws IllegalArgumentException 内容与签名不一致
+     */
+    public void putVerified(String key, InputStream inputStream, long expectedLength, String expectedSha256) throws IOException {
+        if (expectedLength < 0) {
+            throw new IllegalArgumentException("签名中没有内容长度");
+        }
+        MessageDigest digest = sha256();
+        // 最多多读一个字节：足以判断内容超长，超长的请求体不会被整个写到磁盘上
+        Path temp = copyToTemp(new DigestInputStream(new RangeInputStream(inputStream, expectedLength + 1), digest));
+        try {
+            long size = Files.size(temp);
+            if (size != expectedLength) {
+                throw new IllegalArgumentException("内容长度 " + size + " 与签名的长度 " + expectedLength + " 不一致");
+            }
+            String sha256 = Base64.getEncoder().encodeToString(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+                throw new IllegalArgumentException("内容的 SHA-256 与签名不一致");
+            }
+            moveIntoPlace(temp, key);
+            if (expectedSha256 != null) {
+                Path checksum = checksumPathOf(key);
+                Files.createDirectories(checksum.getParent());
+                Files.writeString(checksum, sha256);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void write(String key, InputStream inputStream) throws IOException {
+        Path temp = copyToTemp(inputStream);
+        try {
+            moveIntoPlace(temp, key);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path copyToTemp(InputStream inputStream) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             ReadableByteChannel in = Channels.newChannel(inputStream)) {
+            // 阻塞的源通道只有读到末尾时 transferFrom 才会返回 0
+            long position = 0;
+            long transferred;
+            while ((transferred = out.transferFrom(in, position, 1 << 20)) > 0) {
+                position += transferred;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private void moveIntoPlace(Path temp, String key) throws IOException {
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        // 覆盖写入时旧的校验和不再有效
+        Files.deleteIfExists(checksumPathOf(key));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(pathOf(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(pathOf(key), StandardOpenOption.READ);
+        channel.position(start);
+        return new RangeInputStream(Channels.newInputStream(channel), end - start + 1);
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        try {
+            Files.copy(pathOf(key), target);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Optional<ObjectMetadata> head(String key) {
+        try {
+            long size = Files.size(pathOf(key));
+            Path checksum = checksumPathOf(key);
+            return Optional.of(new ObjectMetadata(key, size, Files.exists(checksum) ? Files.readString(checksum) : null));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<ObjectMetadata> list(String prefix) throws IOException {
+        List<ObjectMetadata> objects = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(objectsDir, 3)) {
+            for (Path path : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String key = new String(Base64.getUrlDecoder().decode(path.getFileName().toString()), StandardCharsets.UTF_8);
+                if (key.startsWith(prefix)) {
+                    objects.add(new ObjectMetadata(key, Files.size(path), null));
+                }
+            }
+        }
+        return objects;
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(pathOf(key));
+                Files.deleteIfExists(checksumPathOf(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException("删除本地对象失败: " + key, e);
+            }
+        }
+    }
+
+    @Override
+    public String presignGet(String key, Duration validity) {
+        long expires = Instant.now().plus(validity).getEpochSecond();
+        return publicUrl(key) + "&expires=" + expires + "&signature=" + sign("GET", key, expires, -1, null);
+    }
+
+    @Override
+    public String presignPut(String key, long contentLength, String checksumSha256, Duration validity) {
+        long expires = Instant.now().plus(validity).getEpochSecond();
+        String url = publicUrl(key) + "&expires=" + expires + "&length=" + contentLength;
+        if (checksumSha256 != null && !checksumSha256.isBlank()) {
+            url += "&checksum=" + URLEncoder.encode(checksumSha256, StandardCharsets.UTF_8);
+        }
+        return url + "&signature=" + sign("PUT", key, expires, contentLength, checksumSha256);
+    }
+
+    /**
+     * 校验预签名地址的签名和有效期。
+     * @param contentLength PUT 时签入的长度，GET 时为 -1
+     */
+    public boolean verify(String method, String key, long expires, long contentLength, String checksumSha256, String signature) {
+        if (signature == null || Instant.now().getEpochSecond() > expires) {
+            return false;
+        }
+        String expected = sign(method, key, expires, contentLength, checksumSha256);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public String publicUrl(String key) {
+        return baseUrl + SERVE_PATH + "?key=" + URLEncoder.encode(key, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String keyFromUrl(String url) {
+        try {
+            String key = UriComponentsBuilder.fromUriString(url).build().getQueryParams().getFirst("key");
+            return key == null ? null : URLDecoder.decode(key, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            logger.error("从URL提取Object Key失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Key 对应的本地文件：objects/{哈希前两位}/{哈希第三、四位}/{Key 的 Base64}。
+     * @throws IllegalArgumentException Key 太长，编码后超过文件名长度上限
+     */
+    public Path pathOf(String key) {
+        String hash = HexFormat.of().formatHex(sha256().digest(key.getBytes(StandardCharsets.UTF_8)));
+        String fileName = Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        if (fileName.length() > MAX_FILE_NAME_LENGTH) {
+            throw new IllegalArgumentException("对象 Key 过长: " + key);
+        }
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(fileName);
+    }
+
+    private Path checksumPathOf(String key) {
+        return checksumsDir.resolve(objectsDir.relativize(pathOf(key)));
+    }
+
+    private String sign(String method, String key, long expires, long contentLength, String checksumSha256) {
+        String payload = method + "\n" + key + "\n" + expires + "\n" + contentLength + "\n" + (checksumSha256 == null ? "" : checksumSha256);
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(signingKey);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 最多读取 remaining 个字节的输入流。
+     */
+    private static final class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.caihuan.photo_app_backend.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 对象存储的抽象 (SPI)
+ * S3Service 等上层服务只通过这个接口读写图片，具体实现由 photoapp.storage.type 选择：
+ * s3 (默认) 使用 AWS S3，local 使用本机文件系统，便于性能测试和不依赖 AWS 的单机部署。
+ * 读取不存在的对象时抛出 java.nio.file.NoSuchFileException。
+ */
+public interface ObjectStorage {
+
+    /**
+     * 对象的元数据。
+     * @param checksumSha256 上传时提供的 SHA-256 (Base64)，没有时为 null
+     */
+    record ObjectMetadata(String key, long size, String checksumSha256) {
+    }
+
+    void put(String key, InputStream inputStream, long contentLength, String contentType) throws IOException;
+
+    /**
+     * 异步上传一个长度可能未知的流 (大文件)，输入流在返回的 future 完成前不能关闭。
+     * 取消返回的 future 会中止上传。
+     * @param contentLength 内容长度，未知时为 null
+     */
+    CompletableFuture<Void> putStreaming(String key, InputStream inputStream, Long contentLength, String contentType);
+
+    InputStream get(String key) throws IOException;
+
+    /**
+     * 读取对象的一段内容。
+     * @param start 起始位置 (包含)
+     * @param end 结束位置 (包含)
+     */
+    InputStream getRange(String key, long start, long end) throws IOException;
+
+    /**
+     * 把对象下载到本地文件。
+     * @param target 目标文件，必须尚不存在
+     * @return 对象不存在时返回 false
+     */
+    boolean download(String key, Path target) throws IOException;
+
+    Optional<ObjectMetadata> head(String key);
+
+    /**
+     * 列出 Key 以 prefix 开头的所有对象。
+     */
+    List<ObjectMetadata> list(String prefix) throws IOException;
+
+    /**
+     * 批量删除，不存在的 Key 会被忽略。
+     */
+    void deleteAll(Collection<String> keys);
+
+    /**
+     * 生成一个有时效的下载地址。
+     */
+    String presignGet(String key, Duration validity);
+
+    /**
+     * 生成一个有时效的上传地址。内容长度被签入地址，给出 SHA-256 时一并签入。
+     */
+    String presignPut(String key, long contentLength, String checksumSha256, Duration validity);
+
+    /**
+     * 对象的永久地址 (保存在数据库中，不能直接访问)。
+     */
+    String publicUrl(String key);
+
+    /**
+     * 从 publicUrl 返回的地址中解析出 Key，无法解析时返回 null。
+     */
+    String keyFromUrl(String url);
+
+    /**
+     * Rekognition 可以直接按引用读取的 S3 桶，不支持时返回 null (需要把图片字节发给 Rekognition)。
+     */
+    default String rekognitionBucket() {
+        return null;
+    }
+}
@@ -0,0 +1,245 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.payload.response.NearDuplicateGroupResponse;
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 按相册维护的感知哈希 (pHash) 近似重复索引
+ * 每个相册一棵内存中的 BK 树，首次查询时从数据库只读取 (id, pHash) 构建，
+ * 之后同步新照片时增量插入，删除照片时打上删除标记。
+ * 查询时对每个不同的哈希做一次半径搜索，再用并查集把互相接近的照片合并成组，
+ * 避免了 O(n²) 的两两比较。
+ */
+@Service
+@RequiredArgsConstructor
+public class PerceptualHashIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PerceptualHashIndexService.class);
+
+    // 64 位哈希的十六进制长度
+    private static final int HEX_HASH_LENGTH = 16;
+
+    private final PhotoRepository photoRepository;
+
+    // 内存中最多保留多少个相册的索引
+    @Value("${photoapp.phash.index-cache-size:256}")
+    private int indexCacheSize;
+
+    // 相册索引多久没被访问就释放
+    @Value("${photoapp.phash.index-idle-minutes:60}")
+    private long indexIdleMinutes;
+
+    private Cache<Long, AlbumIndex> indexes;
+
+    @PostConstruct
+    public void init() {
+        indexes = Caffeine.newBuilder()
+                .maximumSize(indexCacheSize)
+                .expireAfterAccess(Duration.ofMinutes(indexIdleMinutes))
+                .build();
+    }
+
+    /**
+     * 一个相册的索引。BK 树本身非线程安全，所有访问都在这个对象上同步。
+     */
+    private static final class AlbumIndex {
+        private final HammingBkTree tree = new HammingBkTree();
+        // 已经在树中的照片ID。loadIndex 可能已经读到了刚提交的照片，随后 onPhotosAdded 又会插入一次
+        private final Set<Long> indexedIds = new HashSet<>();
+        private final Set<Long> removedIds = new HashSet<>();
+        private int size;
+
+        synchronized void add(long hash, long id) {
+            if (!indexedIds.add(id)) {
+                return;
+            }
+            tree.add(hash, id);
+            size++;
+        }
+
+        synchronized void remove(long id) {
+            removedIds.add(id);
+        }
+    }
+
+    /**
+     * 查找相册内的近似重复照片组。
+     * @param albumId 相册ID
+     * @param maxDistance 允许的最大汉明距离 (64 位哈希中不同的位数)
+     * @return 至少包含两张照片的组，按组内第一张照片的上传顺序排列
+     */
+    public List<NearDuplicateGroupResponse> findNearDuplicateGroups(Long albumId, int maxDistance) {
+        AlbumIndex index = indexes.get(albumId, this::loadIndex);
+        long startedAt = System.nanoTime();
+
+        List<NearDuplicateGroupResponse> groups;
+        synchronized (index) {
+            groups = groupNodes(index, maxDistance);
+        }
+
+        logger.debug("相册 {} 的近似重复查询完成：{} 张照片，距离 {}，{} 组，耗时 {} ms",
+                albumId, index.size, maxDistance, groups.size(), (System.nanoTime() - startedAt) / 1_000_000);
+        return groups;
+    }
+
+    private List<NearDuplicateGroupResponse> groupNodes(AlbumIndex index, int maxDistance) {
+        HammingBkTree tree = index.tree;
+        int[] parent = new int[tree.nodeCount()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        // 照片都已删除的节点不参与合并，否则已删除的照片会把两个本不相关的组连在一起
+        for (HammingBkTree.Node node : tree.nodes()) {
+            if (!isLive(index, node)) {
+                continue;
+            }
+            for (HammingBkTree.Node neighbor : tree.search(node.hash(), maxDistance)) {
+                if (isLive(index, neighbor)) {
+                    union(parent, node.ordinal(), neighbor.ordinal());
+                }
+            }
+        }
+
+        // 按并查集的根收集每组的照片ID，同时得到所有有效照片ID用于计算上传顺序
+        Map<Integer, List<Long>> members = new HashMap<>();
+        List<Long> allIds = new ArrayList<>(index.size);
+        for (HammingBkTree.Node node : tree.nodes()) {
+            for (long id : node.ids()) {
+                if (index.removedIds.contains(id)) {
+                    continue;
+                }
+                members.computeIfAbsent(find(parent, node.ordinal()), k -> new ArrayList<>()).add(id);
+                allIds.add(id);
+            }
+        }
+
+        // 照片ID按上传顺序递增，排好序后下标就是上传顺序
+        long[] uploadOrder = allIds.stream().mapToLong(Long::longValue).sorted().toArray();
+
+        List<NearDuplicateGroupResponse> groups = new ArrayList<>();
+        for (List<Long> photoIds : members.values()) {
+            if (photoIds.size() < 2) {
+                continue;
+            }
+            photoIds.sort(null);
+            int first = Arrays.binarySearch(uploadOrder, photoIds.get(0));
+            int last = Arrays.binarySearch(uploadOrder, photoIds.get(photoIds.size() - 1));
+            boolean burst = last - first + 1 == photoIds.size();
+            groups.add(new NearDuplicateGroupResponse(photoIds, burst));
+        }
+        groups.sort((a, b) -> Long.compare(a.getPhotoIds().get(0), b.getPhotoIds().get(0)));
+        return groups;
+    }
+
+    private static boolean isLive(AlbumIndex index, HammingBkTree.Node node) {
+        for (long id : node.ids()) {
+            if (!index.removedIds.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 新照片保存后调用。只有相册索引已在内存中时才增量插入，否则等下次查询时再从数据库构建。
+     */
+    public void onPhotosAdded(Long albumId, Collection<Photo> photos) {
+        // computeIfPresent 与正在进行的 loadIndex 互斥，不会漏掉刚提交的照片
+        indexes.asMap().computeIfPresent(albumId, (id, index) -> {
+            for (Photo photo : photos) {
+                OptionalLong hash = parseHash(photo.getPerceptualHash());
+                if (hash.isPresent() && photo.getId() != null) {
+                    index.add(hash.getAsLong(), photo.getId());
+                }
+            }
+            return index;
+        });
+    }
+
+    public void onPhotoRemoved(Long albumId, Long photoId) {
+        AlbumIndex index = indexes.getIfPresent(albumId);
+        if (index != null) {
+            index.remove(photoId);
+        }
+    }
+
+    public void onAlbumRemoved(Long albumId) {
+        indexes.invalidate(albumId);
+    }
+
+    private AlbumIndex loadIndex(Long albumId) {
+        long startedAt = System.currentTimeMillis();
+        AlbumIndex index = new AlbumIndex();
+        int skipped = 0;
+        for (Object[] row : photoRepository.findPerceptualHashesByAlbumId(albumId)) {
+            OptionalLong hash = parseHash((String) row[1]);
+            if (hash.isPresent()) {
+                index.add(hash.getAsLong(), (Long) row[0]);
+            } else {
+                skipped++;
+            }
+        }
+        logger.info("已构建相册 {} 的感知哈希索引：{} 张照片 ({} 个不同哈希)，跳过 {} 个无法解析的哈希，耗时 {} ms",
+                albumId, index.size, index.tree.nodeCount(), skipped, System.currentTimeMillis() - startedAt);
+        return index;
+    }
+
+    /**
+     * 解析客户端提交的 64 位感知哈希，支持十六进制 (最多16位) 和 64 位二进制字符串两种格式。
+     */
+    static OptionalLong parseHash(String pHash) {
+        if (pHash == null || pHash.isBlank()) {
+            return OptionalLong.empty();
+        }
+        String value = pHash.trim();
+        try {
+            if (value.length() == Long.SIZE && value.chars().allMatch(c -> c == '0' || c == '1')) {
+                return OptionalLong.of(Long.parseUnsignedLong(value, 2));
+            }
+            if (value.length() <= HEX_HASH_LENGTH) {
+                return OptionalLong.of(Long.parseUnsignedLong(value, 16));
+            }
+        } catch (NumberFormatException e) {
+            // 格式不对的哈希直接忽略
+        }
+        return OptionalLong.empty();
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[rootA] = rootB;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.caihuan.photo_app_backend.services;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 启动时对齐照片主键序列
+ * 把照片主键序列 (photos_seq 表) 对齐到 photos 表已有的最大ID之后。
+ * 照片主键由 IDENTITY 改为序列后，已有数据的库中序列会从头开始，不对齐就会与旧ID冲突。
+ * 在所有单例 (包括建表的 EntityManagerFactory) 创建完成后、Web 服务器开始接收请求之前执行，
+ * 第一个同步请求取到的号段一定已经对齐。
+ */
+@Component
+@RequiredArgsConstructor
+public class PhotoIdSequenceInitializer implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoIdSequenceInitializer.class);
+
+    // 必须与 Photo 实体上 @SequenceGenerator 的 allocationSize 一致
+    private static final int ALLOCATION_SIZE = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            // pooled 优化器取到的值 v 代表区间 (v - allocationSize, v]，所以要留出一整段余量
+            int updated = jdbcTemplate.update(
+                    "UPDATE photos_seq SET next_val = (SELECT COALESCE(MAX(id), 0) + ? + 1 FROM photos) "
+                            + "WHERE next_val <= (SELECT COALESCE(MAX(id), 0) + ? FROM photos)",
+                    ALLOCATION_SIZE, ALLOCATION_SIZE);
+            if (updated > 0) {
+                logger.info("已将照片主键序列 photos_seq 对齐到现有照片ID之后。");
+            }
+        } catch (DataAccessException e) {
+            logger.warn("无法对齐照片主键序列 photos_seq，请确认该表已创建: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.repository.PhotoLikeRepository;
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 分享页的点赞
+ * 每个访客的点赞是一条记录，靠唯一约束 + INSERT IGNORE / DELETE 的影响行数判断是否真正发生了变化，
+ * 只有变化时才原子地增减照片上的点赞计数，因此并发点击不会丢失更新，也不需要加载照片实体。
+ */
+@Service
+@RequiredArgsConstructor
+public class PhotoLikeService {
+
+    // 没有提供访客ID的旧客户端共用这个ID，行为与原来全局的“喜欢”开关一致
+    public static final String SHARED_VIEWER_ID = "shared";
+
+    private static final Pattern VALID_VIEWER_ID = Pattern.compile("[A-Za-z0-9_-]{8,64}");
+
+    private final PhotoLikeRepository photoLikeRepository;
+    private final PhotoRepository photoRepository;
+
+    /**
+     * 点赞操作的结果。
+     * @param liked 当前访客是否点赞了这张照片
+     * @param likeCount 照片的点赞总数
+     */
+    public record LikeResult(boolean liked, int likeCount) {
+    }
+
+    /**
+     * 规范化客户端传来的访客ID，无效或缺失时使用共享ID。
+     */
+    public static String normalizeViewerId(String viewerId) {
+        return viewerId != null && VALID_VIEWER_ID.matcher(viewerId).matches() ? viewerId : SHARED_VIEWER_ID;
+    }
+
+    @Transactional
+    public LikeResult like(Long photoId, String viewerId) {
+        if (photoLikeRepository.insertIfAbsent(photoId, viewerId) == 1) {
+            photoRepository.incrementLikeCount(photoId);
+        }
+        return new LikeResult(true, currentCount(photoId));
+    }
+
+    @Transactional
+    public LikeResult unlike(Long photoId, String viewerId) {
+        if (photoLikeRepository.deleteByPhotoIdAndViewerId(photoId, viewerId) == 1) {
+            photoRepository.decrementLikeCount(photoId);
+        }
+        return new LikeResult(false, currentCount(photoId));
+    }
+
+    /**
+     * 切换点赞状态：先尝试添加，已经点过赞则取消。
+     */
+    @Transactional
+    public LikeResult toggle(Long photoId, String viewerId) {
+        if (photoLikeRepository.insertIfAbsent(photoId, viewerId) == 1) {
+            photoRepository.incrementLikeCount(photoId);
+            return new LikeResult(true, currentCount(photoId));
+        }
+        if (photoLikeRepository.deleteByPhotoIdAndViewerId(photoId, viewerId) == 1) {
+            photoRepository.decrementLikeCount(photoId);
+        }
+        return new LikeResult(false, currentCount(photoId));
+    }
+
+    @Transactional(readOnly = true)
+    public List<Long> findLikedPhotoIds(Long albumId, String viewerId) {
+        return photoLikeRepository.findLikedPhotoIds(albumId, viewerId);
+    }
+
+    private int currentCount(Long photoId) {
+        return photoRepository.findLikeCount(photoId).orElse(0);
+    }
+}
@@ -0,0 +1,221 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.payload.response.PhotoPageResponse;
+import com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse;
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 照片列表的只读查询
+ * 列表不加载 Photo 实体，而是用构造表达式只查网格需要的列，
+ * 分类和AI标签各用一条语句按相册批量取回再拼装，
+ * 因此无论相册有多少张照片，一次列表请求固定只执行三条 SQL。
+ * 带 limit 的请求使用键集分页，每页同样只执行三条 SQL。
+ */
+@Service
+@RequiredArgsConstructor
+public class PhotoQueryService {
+
+    private final PhotoRepository photoRepository;
+    private final S3Service s3Service;
+
+    // 单页最多返回的照片数
+    @Value("${photoapp.listing.max-page-size:500}")
+    private int maxPageSize;
+
+    @Transactional(readOnly = true)
+    public List<PhotoSummaryResponse> listAlbumPhotos(Long albumId, boolean likedOnly) {
+        List<PhotoSummaryResponse> photos = photoRepository.findSummariesByAlbumId(albumId, likedOnly);
+        if (photos.isEmpty()) {
+            return photos;
+        }
+        Map<Long, PhotoSummaryResponse> byId = new HashMap<>(photos.size() * 2);
+        photos.forEach(photo -> byId.put(photo.getId(), photo));
+
+        attach(photoRepository.findCategoriesByAlbumId(albumId), byId, (photo, value) -> photo.getCategories().add(value));
+        attach(photoRepository.findAiLabelsByAlbumId(albumId), byId, (photo, value) -> photo.getAiLabels().add(value));
+        return photos;
+    }
+
+    /**
+     * 照片列表的排序方式。
+     */
+    public enum PhotoSort {
+        // 上传顺序 (主键递增)
+        UPLOAD,
+        // 文件名，相同时按上传顺序
+        FILENAME;
+
+        public static PhotoSort from(String value) {
+            if (value == null || value.isBlank()) {
+                return UPLOAD;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("不支持的排序方式: " + value);
+            }
+        }
+    }
+
+    /**
+     * 键集分页查询相册照片。
+     * 游标记录上一页最后一张照片的排序键，下一页直接从索引中该位置之后开始读取，
+     * 因此无论翻到第几页、相册有多大，每页的开销只与页大小有关。
+     * @param cursor 上一页返回的游标，第一页传 null
+     * @param limit 每页数量
+     * @throws IllegalArgumentException 游标无效或与排序方式不匹配
+     */
+    @Transactional(readOnly = true)
+    public PhotoPageResponse listAlbumPhotoPage(Long albumId, boolean likedOnly, PhotoSort sort, String cursor, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        PageCursor after = cursor == null || cursor.isBlank() ? PageCursor.FIRST : PageCursor.decode(cursor, sort);
+        // 多取一条用来判断是否还有下一页
+        Pageable pageable = PageRequest.ofSize(pageSize + 1);
+
+        List<PhotoSummaryResponse> photos = switch (sort) {
+            case UPLOAD -> photoRepository.findSummaryPageByUploadOrder(albumId, likedOnly, after.id(), pageable);
+            case FILENAME -> photoRepository.findSummaryPageByFileName(albumId, likedOnly, after.fileName(), after.id(), pageable);
+        };
+
+        String nextCursor = null;
+        if (photos.size() > pageSize) {
+            photos = new ArrayList<>(photos.subList(0, pageSize));
+            PhotoSummaryResponse last = photos.get(pageSize - 1);
+            nextCursor = new PageCursor(last.getId(), last.getOriginalFileName()).encode(sort);
+        }
+
+        if (!photos.isEmpty()) {
+            Map<Long, PhotoSummaryResponse> byId = new HashMap<>(photos.size() * 2);
+            photos.forEach(photo -> byId.put(photo.getId(), photo));
+            attach(photoRepository.findCategoriesByPhotoIds(byId.keySet()), byId, (photo, value) -> photo.getCategories().add(value));
+            attach(photoRepository.findAiLabelsByPhotoIds(byId.keySet()), byId, (photo, value) -> photo.getAiLabels().add(value));
+        }
+        return new PhotoPageResponse(photos, nextCursor);
+    }
+
+    /**
+     * 分页游标：上一页最后一张照片的ID和文件名，编码为 URL 安全的 Base64 字符串。
+     * 格式为 "u:{id}" 或 "f:{id}:{fileName}"，文件名为 null 时省略最后一段。
+     */
+    private record PageCursor(long id, String fileName) {
+
+        static final PageCursor FIRST = new PageCursor(0L, null);
+
+        String encode(PhotoSort sort) {
+            String raw = sort == PhotoSort.UPLOAD
+                    ? "u:" + id
+                    : "f:" + id + (fileName == null ? "" : ":" + fileName);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String cursor, PhotoSort sort) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = raw.split(":", 3);
+                String expectedPrefix = sort == PhotoSort.UPLOAD ? "u" : "f";
+                if (!parts[0].equals(expectedPrefix) || parts.length < 2) {
+                    throw new IllegalArgumentException("游标与排序方式不匹配");
+                }
+                return new PageCursor(Long.parseLong(parts[1]), parts.length == 3 ? parts[2] : null);
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException 也是 IllegalArgumentException
+                throw new IllegalArgumentException("无效的分页游标: " + cursor, e);
+            }
+        }
+    }
+
+    private void attach(List<Object[]> rows, Map<Long, PhotoSummaryResponse> byId,
+                        BiConsumer<PhotoSummaryResponse, String> adder) {
+        for (Object[] row : rows) {
+            // 只查询喜欢的照片时，集合里会有不在本次结果中的照片
+            PhotoSummaryResponse photo = byId.get((Long) row[0]);
+            if (photo != null) {
+                adder.accept(photo, (String) row[1]);
+            }
+        }
+    }
+
+    /**
+     * 为相册所有者生成全部链接的预签名URL：缩略图、精修图、预览图和分享图。
+     */
+    public void presignForOwner(List<PhotoSummaryResponse> photos) {
+        List<String> keys = new ArrayList<>();
+        for (PhotoSummaryResponse photo : photos) {
+            addKey(keys, s3Service.getObjectKeyFromUrl(photo.getStorageUrl()));
+            addKey(keys, s3Service.getObjectKeyFromUrl(photo.getFinalStorageUrl()));
+            addKey(keys, photo.getAnalysisImageKey());
+            addKey(keys, photo.getShareImageKey());
+        }
+        Map<String, String> presignedUrls = s3Service.generatePresignedUrls(keys);
+
+        for (PhotoSummaryResponse photo : photos) {
+            photo.setStorageUrl(presignedUrlFor(presignedUrls, s3Service.getObjectKeyFromUrl(photo.getStorageUrl())));
+            photo.setFinalStorageUrl(presignedUrlFor(presignedUrls, s3Service.getObjectKeyFromUrl(photo.getFinalStorageUrl())));
+            photo.setPreviewUrl(presignedUrlFor(presignedUrls, photo.getAnalysisImageKey()));
+            photo.setShareUrl(presignedUrlFor(presignedUrls, photo.getShareImageKey()));
+        }
+    }
+
+    /**
+     * 为分享页面生成预签名URL：只签名缩略图和分享图，与之前分享页的可见范围一致。
+     */
+    public void presignForShare(List<PhotoSummaryResponse> photos) {
+        List<String> keys = new ArrayList<>();
+        for (PhotoSummaryResponse photo : photos) {
+            addKey(keys, s3Service.getObjectKeyFromUrl(photo.getStorageUrl()));
+            addKey(keys, photo.getShareImageKey());
+        }
+        Map<String, String> presignedUrls = s3Service.generatePresignedUrls(keys);
+
+        for (PhotoSummaryResponse photo : photos) {
+            photo.setStorageUrl(presignedUrlFor(presignedUrls, s3Service.getObjectKeyFromUrl(photo.getStorageUrl())));
+            photo.setShareUrl(presignedUrlFor(presignedUrls, photo.getShareImageKey()));
+        }
+    }
+
+    /**
+     * 为分享页面的照片填写经由磁盘缓存分发的图片地址。必须在预签名之前调用 (预签名会覆盖 storageUrl)。
+     * 地址中带有对象的版本号，对象变化时地址随之变化，因此可以被浏览器永久缓存。
+     */
+    public void attachDeliveryUrls(String shareToken, List<PhotoSummaryResponse> photos) {
+        for (PhotoSummaryResponse photo : photos) {
+            photo.setThumbnailDeliveryUrl(deliveryUrl(shareToken, photo.getId(), "thumb",
+                    s3Service.getObjectKeyFromUrl(photo.getStorageUrl())));
+            photo.setShareDeliveryUrl(deliveryUrl(shareToken, photo.getId(), "share", photo.getShareImageKey()));
+        }
+    }
+
+    private static String deliveryUrl(String shareToken, Long photoId, String variant, String key) {
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        return "/api/public/image/" + shareToken + "/" + photoId + "/" + variant + "?v=" + ImageDiskCacheService.versionOf(key);
+    }
+
+    private static void addKey(List<String> keys, String key) {
+        if (key != null && !key.isEmpty()) {
+            keys.add(key);
+        }
+    }
+
+    private static String presignedUrlFor(Map<String, String> presignedUrls, String key) {
+        return key == null || key.isEmpty() ? null : presignedUrls.get(key);
+    }
+}
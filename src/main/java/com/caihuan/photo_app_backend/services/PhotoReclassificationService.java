@@ -0,0 +1,322 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.ReclassificationJob;
+import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
+import com.caihuan.photo_app_backend.repository.ReclassificationJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 用已保存的 AI 标签批量重新分类照片
+ * 修改分类规则后，不需要重新调用 Rekognition：按照片ID顺序分块读取已分析照片的 aiLabels，
+ * 在本地用当前规则重新计算分类，只把发生变化的照片在一个事务内批量写回。
+ * 读取和写回都直接使用 JDBC，避免为每张照片加载实体和三个 EAGER 集合。
+ * 多个分块并行处理，检查点按提交顺序推进 (之前的分块全部完成后才前移)，
+ * 任务停止或应用重启后可以从检查点继续，检查点之后已处理过的分块重新计算一遍也不会出错。
+ */
+@Service
+@RequiredArgsConstructor
+public class PhotoReclassificationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoReclassificationService.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ReclassificationJobRepository jobRepository;
+    private final CategoryRuleEngine categoryRuleEngine;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // 每个分块的照片数
+    @Value("${photoapp.reclassify.chunk-size:2000}")
+    private int chunkSize;
+
+    // 并行处理分块的线程数，0 表示使用 CPU 核数
+    @Value("${photoapp.reclassify.threads:0}")
+    private int threads;
+
+    private final ExecutorService coordinatorExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("reclassify-coordinator").daemon(true).factory());
+
+    // 当前正在运行的任务ID，同一时间只允许一个任务
+    private Long runningJobId;
+    private volatile boolean stopRequested;
+
+    private record PhotoRow(long id, Long albumId, Boolean textLineDetected) {
+    }
+
+    private record ChunkResult(long lastPhotoId, int processed, int changed) {
+    }
+
+    private record ChunkUpdate(int changed, Set<Long> changedAlbums) {
+    }
+
+    @PostConstruct
+    public void init() {
+        int paused = jobRepository.pauseRunningJobs();
+        if (paused > 0) {
+            logger.warn("有 {} 个重新分类任务在上次运行时被中断，已标记为暂停，可以从检查点继续。", paused);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopRequested = true;
+        coordinatorExecutor.shutdown();
+    }
+
+    /**
+     * 开始一个新的重新分类任务，处理所有已经过云端分析的照片。
+     * @throws IllegalStateException 已有任务在运行
+     */
+    public synchronized ReclassificationJob start() {
+        checkNotRunning();
+        ReclassificationJob job = new ReclassificationJob();
+        job.setStatus(ReclassificationJob.Status.RUNNING);
+        job.setRuleVersion(categoryRuleEngine.version());
+        job.setLastPhotoId(0);
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM photos WHERE cloud_analyzed = true", Long.class);
+        job.setTotalPhotos(total == null ? 0 : total);
+        job.setStartedAt(Instant.now());
+        job.setUpdatedAt(job.getStartedAt());
+        return launch(jobRepository.save(job));
+    }
+
+    /**
+     * 从检查点继续一个暂停或失败的任务，剩余部分使用当前的分类规则。
+     * @throws IllegalStateException 已有任务在运行，或该任务已完成
+     */
+    public synchronized ReclassificationJob resume(Long jobId) {
+        checkNotRunning();
+        ReclassificationJob job = get(jobId);
+        if (job.getStatus() == ReclassificationJob.Status.COMPLETED) {
+            throw new IllegalStateException("任务 " + jobId + " 已完成");
+        }
+        job.setStatus(ReclassificationJob.Status.RUNNING);
+        job.setRuleVersion(categoryRuleEngine.version());
+        job.setUpdatedAt(Instant.now());
+        job.setFinishedAt(null);
+        job.setErrorMessage(null);
+        return launch(jobRepository.save(job));
+    }
+
+    /**
+     * 请求停止正在运行的任务。已提交的分块处理完、检查点保存后任务变为暂停。
+     * @return 是否有任务在运行
+     */
+    public synchronized boolean stop(Long jobId) {
+        if (runningJobId == null || !runningJobId.equals(jobId)) {
+            return false;
+        }
+        stopRequested = true;
+        return true;
+    }
+
+    public ReclassificationJob get(Long jobId) {
+        return jobRepository.findById(jobId)
+                .orElseThrow(() -> new ResourceNotFoundException("找不到ID为 " + jobId + " 的重新分类任务"));
+    }
+
+    public Optional<ReclassificationJob> latest() {
+        return jobRepository.findFirstByOrderByIdDesc();
+    }
+
+    private void checkNotRunning() {
+        if (runningJobId != null) {
+            throw new IllegalStateException("重新分类任务 " + runningJobId + " 正在运行");
+        }
+    }
+
+    private ReclassificationJob launch(ReclassificationJob job) {
+        runningJobId = job.getId();
+        stopRequested = false;
+        coordinatorExecutor.execute(() -> run(job.getId(), job.getLastPhotoId(), job.getProcessedPhotos(), job.getChangedPhotos()));
+        logger.info("重新分类任务 {} 开始 (规则版本 {})，从照片ID {} 之后继续，共 {} 张已分析照片。",
+                job.getId(), job.getRuleVersion(), job.getLastPhotoId(), job.getTotalPhotos());
+        return job;
+    }
+
+    /**
+     * 协调线程：按ID顺序切分块并提交给工作线程，按提交顺序收集结果并推进检查点。
+     */
+    private void run(Long jobId, long checkpoint, long processed, long changed) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(poolSize,
+                Thread.ofPlatform().name("reclassify-", 0).daemon(true).factory());
+        Deque<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+        long startedAt = System.currentTimeMillis();
+        long startProcessed = processed;
+        ReclassificationJob.Status finalStatus = ReclassificationJob.Status.COMPLETED;
+        String errorMessage = null;
+        try {
+            long cursor = checkpoint;
+            while (true) {
+                if (stopRequested) {
+                    finalStatus = ReclassificationJob.Status.PAUSED;
+                    break;
+                }
+                List<Long> ids = jdbcTemplate.queryForList(
+                        "SELECT id FROM photos WHERE cloud_analyzed = true AND id > ? ORDER BY id LIMIT ?",
+                        Long.class, cursor, chunkSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                cursor = ids.get(ids.size() - 1);
+                inFlight.add(workers.submit(() -> reclassifyChunk(ids)));
+
+                // 在途分块数有上限，等最早提交的分块完成后推进检查点
+                if (inFlight.size() >= poolSize * 2) {
+                    ChunkResult result = inFlight.removeFirst().get();
+                    processed += result.processed();
+                    changed += result.changed();
+                    jobRepository.saveCheckpoint(jobId, result.lastPhotoId(), processed, changed, Instant.now());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                ChunkResult result = inFlight.removeFirst().get();
+                processed += result.processed();
+                changed += result.changed();
+                jobRepository.saveCheckpoint(jobId, result.lastPhotoId(), processed, changed, Instant.now());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finalStatus = ReclassificationJob.Status.PAUSED;
+        } catch (ExecutionException | RuntimeException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            logger.error("重新分类任务 {} 失败", jobId, cause);
+            finalStatus = ReclassificationJob.Status.FAILED;
+            errorMessage = String.valueOf(cause.getMessage());
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+            workers.shutdownNow();
+            finish(jobId, finalStatus, errorMessage);
+        }
+
+        long elapsedMs = Math.max(System.currentTimeMillis() - startedAt, 1);
+        logger.info("重新分类任务 {} 结束 ({})：本次处理 {} 张，累计 {} 张，其中 {} 张分类有变化，耗时 {} 秒 ({} 张/秒)",
+                jobId, finalStatus, processed - startProcessed, processed, changed, elapsedMs / 1000,
+                (processed - startProcessed) * 1000 / elapsedMs);
+    }
+
+    private synchronized void finish(Long jobId, ReclassificationJob.Status status, String errorMessage) {
+        try {
+            jobRepository.findById(jobId).ifPresent(job -> {
+                job.setStatus(status);
+                job.setErrorMessage(errorMessage == null ? null : errorMessage.substring(0, Math.min(errorMessage.length(), 1000)));
+                job.setUpdatedAt(Instant.now());
+                if (status == ReclassificationJob.Status.COMPLETED) {
+                    job.setFinishedAt(job.getUpdatedAt());
+                }
+                jobRepository.save(job);
+            });
+        } finally {
+            runningJobId = null;
+        }
+    }
+
+    /**
+     * 重新分类一个分块。读取和写回在同一个事务内，并先锁住分块内的照片行：
+     * 同时进行的相册分析 (PhotoService.writeAnalysisResults 会先更新照片行) 要么在我们读取之前提交，
+     * 要么等我们提交后再写入新的标签和分类，不会被用旧标签算出的分类覆盖。
+     */
+    private ChunkResult reclassifyChunk(List<Long> ids) {
+        ChunkUpdate update = transactionTemplate.execute(status -> reclassifyLocked(ids));
+        update.changedAlbums().forEach(albumId -> eventPublisher.publishEvent(new AlbumContentChangedEvent(albumId)));
+        return new ChunkResult(ids.get(ids.size() - 1), ids.size(), update.changed());
+    }
+
+    private ChunkUpdate reclassifyLocked(List<Long> ids) {
+        Map<String, Object> params = Map.of("ids", ids);
+        // 按ID顺序加锁，与 writeAnalysisResults 的加锁顺序一致
+        List<PhotoRow> photos = namedParameterJdbcTemplate.query(
+                "SELECT id, album_id, text_line_detected FROM photos WHERE id IN (:ids) ORDER BY id FOR UPDATE", params,
+                (rs, rowNum) -> new PhotoRow(rs.getLong("id"), rs.getObject("album_id", Long.class),
+                        rs.getObject("text_line_detected", Boolean.class)));
+        Map<Long, List<String>> labels = queryCollection(
+                "SELECT photo_id, ai_labels FROM photo_ai_labels WHERE photo_id IN (:ids)", params);
+        Map<Long, List<String>> currentCategories = queryCollection(
+                "SELECT photo_id, categories FROM photo_categories WHERE photo_id IN (:ids)", params);
+
+        Map<Long, List<String>> updates = new LinkedHashMap<>();
+        Set<Long> changedAlbums = new HashSet<>();
+        for (PhotoRow photo : photos) {
+            List<String> photoLabels = labels.getOrDefault(photo.id(), List.of());
+            List<String> current = currentCategories.getOrDefault(photo.id(), List.of());
+            List<String> categories = photo.textLineDetected() != null
+                    ? categoryRuleEngine.classify(photoLabels, photo.textLineDetected())
+                    : classifyWithoutTextLineFlag(photoLabels, current);
+            // 分类的顺序不影响含义，只比较集合
+            if (!new HashSet<>(categories).equals(new HashSet<>(current))) {
+                updates.put(photo.id(), categories);
+                if (photo.albumId() != null) {
+                    changedAlbums.add(photo.albumId());
+                }
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            List<Object[]> rows = new ArrayList<>();
+            updates.forEach((photoId, categories) -> categories.forEach(category -> rows.add(new Object[]{photoId, category})));
+            namedParameterJdbcTemplate.update("DELETE FROM photo_categories WHERE photo_id IN (:ids)",
+                    Map.of("ids", updates.keySet()));
+            jdbcTemplate.batchUpdate("INSERT INTO photo_categories (photo_id, categories) VALUES (?, ?)", rows);
+        }
+        return new ChunkUpdate(updates.size(), changedAlbums);
+    }
+
+    /**
+     * 旧数据没有记录是否检测到整行文字 (text_line_detected 为 NULL)，保存的文字是按置信度过滤后的结果，不能用来推断。
+     * 这时有无文字行各算一遍：只在有文字行时才匹配的分类 (例如文档与截图) 保留照片当前的归属，其余分类按规则计算。
+     */
+    private List<String> classifyWithoutTextLineFlag(List<String> labels, List<String> current) {
+        List<String> withTextLine = categoryRuleEngine.classify(labels, true);
+        List<String> withoutTextLine = categoryRuleEngine.classify(labels, false);
+        if (withTextLine.equals(withoutTextLine)) {
+            return withoutTextLine;
+        }
+        Set<String> certain = new HashSet<>(withoutTextLine);
+        List<String> categories = new ArrayList<>();
+        for (String category : withTextLine) {
+            if (certain.contains(category) || current.contains(category)) {
+                categories.add(category);
+            }
+        }
+        // 一个分类都没有时就是兜底分类
+        return categories.isEmpty() ? withoutTextLine : categories;
+    }
+
+    private Map<Long, List<String>> queryCollection(String sql, Map<String, ?> params) {
+        Map<Long, List<String>> values = new HashMap<>();
+        namedParameterJdbcTemplate.query(sql, params, rs -> {
+            values.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getString(2));
+        });
+        return values;
+    }
+}
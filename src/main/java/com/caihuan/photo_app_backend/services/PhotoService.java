@@ -1,15 +1,40 @@
 package com.caihuan.photo_app_backend.services;
 
 import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.exception.ResourceNotFoundException;
 import com.caihuan.photo_app_backend.payload.response.ImageAnalysisResponse;
 import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.rekognition.model.LimitExceededException;
+import software.amazon.awssdk.services.rekognition.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.rekognition.model.ThrottlingException;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
@@ -18,50 +43,281 @@ public class PhotoService {
     private final PhotoRepository photoRepository;
     private final S3Service s3Service;
     private final ImageAnalysisService imageAnalysisService;
+    private final ContentAddressedStorageService contentAddressedStorage;
+    private final MeterRegistry meterRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
 
     private static final Logger logger = LoggerFactory.getLogger(PhotoService.class);
 
+    // 统计吞吐量的滑动窗口长度
+    private static final long THROUGHPUT_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    // 同时进行的照片分析数量上限 (所有相册任务共享，对应账号的 TPS 配额)
+    @Value("${photoapp.analysis.max-concurrency:16}")
+    private int maxConcurrency;
+
+    // 任务开始时的并发数，之后由限流反馈自动调整
+    @Value("${photoapp.analysis.initial-concurrency:4}")
+    private int initialConcurrency;
+
+    // 分析结果攒够多少条写一次数据库
+    @Value("${photoapp.analysis.save-batch-size:50}")
+    private int saveBatchSize;
+
+    // 单张照片遇到限流时的最大尝试次数
+    @Value("${photoapp.analysis.max-attempts:5}")
+    private int maxAttempts;
+
+    // 限流退避的基础时长 (毫秒)，每次重试翻倍
+    @Value("${photoapp.analysis.backoff-base-ms:500}")
+    private long backoffBaseMs;
+
+    private AdaptiveConcurrencyLimiter analysisLimiter;
+    private final Deque<Long> recentCompletions = new ConcurrentLinkedDeque<>();
+    private Counter analyzedCounter;
+    private Counter failedCounter;
+    private Counter throttledCounter;
+
+    @PostConstruct
+    public void init() {
+        analysisLimiter = new AdaptiveConcurrencyLimiter(1, maxConcurrency, initialConcurrency);
+
+        Gauge.builder("photo.analysis.inflight", analysisLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("正在进行中的照片分析数量")
+                .register(meterRegistry);
+        Gauge.builder("photo.analysis.concurrency.limit", analysisLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("自适应限制器当前允许的并发数")
+                .register(meterRegistry);
+        Gauge.builder("photo.analysis.throughput", this, PhotoService::photosPerSecond)
+                .description("最近10秒内每秒完成分析的照片数")
+                .baseUnit("photos/s")
+                .register(meterRegistry);
+        analyzedCounter = Counter.builder("photo.analysis.photos").tag("outcome", "success").register(meterRegistry);
+        failedCounter = Counter.builder("photo.analysis.photos").tag("outcome", "failure").register(meterRegistry);
+        throttledCounter = Counter.builder("photo.analysis.throttled")
+                .description("Rekognition 限流次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 后台分析相册中所有未分析的照片。
+     * 照片并发分析 (并发数由自适应限制器控制)，结果攒批写回数据库。
+     */
     @Async
     public void analyzePhotosInAlbum(Long albumId) {
         List<Photo> photosToAnalyze = photoRepository.findByAlbumIdAndCloudAnalyzedIsFalse(albumId);
         logger.info("后台任务开始：分析相册 {} 中的 {} 张照片...", albumId, photosToAnalyze.size());
-        for (Photo photo : photosToAnalyze) {
-            analyzeAndSaveSinglePhoto(photo);
+        long startedAt = System.currentTimeMillis();
+
+        BlockingQueue<Photo> analyzedPhotos = new LinkedBlockingQueue<>();
+        int savedCount = 0;
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Photo photo : photosToAnalyze) {
+                analysisLimiter.acquire();
+                workers.submit(() -> analyzeWithRetry(photo, analyzedPhotos));
+                if (analyzedPhotos.size() >= saveBatchSize) {
+                    savedCount += saveBatch(albumId, analyzedPhotos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("相册 {} 的分析任务被中断，已完成的结果仍会保存。", albumId);
+        }
+        // 关闭 executor 时已等待所有分析完成，把剩余结果全部写回
+        while (!analyzedPhotos.isEmpty()) {
+            savedCount += saveBatch(albumId, analyzedPhotos);
         }
-        logger.info("后台任务完成：相册 {} 的所有照片分析结束！", albumId);
+
+        long elapsedMs = Math.max(System.currentTimeMillis() - startedAt, 1);
+        logger.info("后台任务完成：相册 {} 分析结束，成功 {} / {} 张，耗时 {} 秒 ({} 张/秒)",
+                albumId, savedCount, photosToAnalyze.size(), elapsedMs / 1000,
+                String.format("%.2f", savedCount * 1000.0 / elapsedMs));
     }
 
-    private void analyzeAndSaveSinglePhoto(Photo photo) {
+    /**
+     * 分析单张照片。调用开始前调用方已获取了一个许可，本方法负责在每条路径上归还它。
+     * 被限流时归还许可、退避，再重新排队获取许可重试。
+     */
+    private void analyzeWithRetry(Photo photo, BlockingQueue<Photo> analyzedPhotos) {
         String objectKey = photo.getAnalysisImageKey();
 
         if (objectKey == null || objectKey.isEmpty()) {
+            analysisLimiter.onFailure();
+            failedCounter.increment();
             logger.error("分析失败：照片 {} 没有可供分析的Image Key。", photo.getOriginalFileName());
             return;
         }
 
-        try {
-            logger.info("正在通过 S3 引用分析照片: {}", objectKey);
-            ImageAnalysisResponse analysisResult = imageAnalysisService.analyzeImageFromS3(objectKey);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                logger.debug("正在通过 S3 引用分析照片: {} (第 {} 次尝试)", objectKey, attempt);
+                ImageAnalysisResponse analysisResult = imageAnalysisService.analyzeImageFromS3(objectKey, photo.getAnalysisImageSha256());
+                applyAnalysisResult(photo, analysisResult);
+                analysisLimiter.onSuccess();
+                recordCompletion();
+                analyzedPhotos.add(photo);
+                return;
+            } catch (Exception e) {
+                if (!isThrottling(e)) {
+                    analysisLimiter.onFailure();
+                    failedCounter.increment();
+                    logger.error("分析照片 {} (Key: {}) 失败: {}", photo.getOriginalFileName(), objectKey, e.getMessage());
+                    return;
+                }
+                analysisLimiter.onThrottled();
+                throttledCounter.increment();
+                if (attempt >= maxAttempts) {
+                    failedCounter.increment();
+                    logger.error("照片 {} 连续 {} 次被 Rekognition 限流，放弃本次分析。", photo.getOriginalFileName(), attempt);
+                    return;
+                }
+            }
 
-            // 【核心修改】将丰富的分析结果更新到照片对象中
-            // 内容识别
-            photo.setCategories(analysisResult.getCategories()); // <-- 使用新的字段
-            photo.setAiLabels(analysisResult.getLabels());
-//            photo.setAiDetectedText(analysisResult.getDetectedText()); // 你的Photo实体中没有这个字段，如果需要请添加
-            // photo.setAiDominantColors(analysisResult.getDominantColors()); // 新的Service中已移除
+            // 指数退避 + 随机抖动，避免所有被限流的调用同时重试
+            long backoffMs = backoffBaseMs * (1L << Math.min(attempt - 1, 6));
+            try {
+                Thread.sleep(backoffMs + ThreadLocalRandom.current().nextLong(backoffMs + 1));
+                analysisLimiter.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failedCounter.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 精修大图上传完成后，把照片切换到精修版本，并释放旧的缩略图、预览图、分享图和旧的精修图。
+     * 先上传后切换，上传失败时照片保持原样。
+     */
+    @Transactional
+    public void applyFinalVersion(Long photoId, String finalUrl) {
+        Photo photo = photoRepository.findById(photoId)
+                .orElseThrow(() -> new ResourceNotFoundException("找不到ID为 " + photoId + " 的照片"));
 
-            // 人脸分析
-            photo.setFaceCount(analysisResult.getFaceCount());
-            photo.setAllFacesSmiling(analysisResult.isAllFacesSmiling());
-            photo.setAllEyesOpen(analysisResult.isAllEyesOpen());
+        List<String> keysToRelease = new ArrayList<>();
+        keysToRelease.add(s3Service.getObjectKeyFromUrl(photo.getFinalStorageUrl()));
+        keysToRelease.add(s3Service.getObjectKeyFromUrl(photo.getStorageUrl()));
+        keysToRelease.add(photo.getAnalysisImageKey());
+        keysToRelease.add(photo.getShareImageKey());
 
-            photo.setCloudAnalyzed(true); // 标记为已分析
+        photo.setFinalStorageUrl(finalUrl);
+        photo.setStorageUrl(null);
+        photo.setAnalysisImageKey(null);
+        photo.setAnalysisImageSha256(null);
+        photo.setShareImageKey(null);
+        photo.setFinalized(true);
+        photoRepository.save(photo);
+
+        // releaseObjects 会忽略 null 和空字符串
+        contentAddressedStorage.releaseObjects(keysToRelease);
+        eventPublisher.publishEvent(new AlbumContentChangedEvent(photo.getAlbum().getId()));
+        logger.info("照片 {} 已切换到精修版本。", photoId);
+    }
 
-            photoRepository.save(photo);
-            logger.info("照片 {} 的云端AI分析成功并已保存。", photo.getOriginalFileName());
+    private void applyAnalysisResult(Photo photo, ImageAnalysisResponse analysisResult) {
+        // 【核心修改】将丰富的分析结果更新到照片对象中
+        // 内容识别
+        photo.setCategories(analysisResult.getCategories()); // <-- 使用新的字段
+        photo.setAiLabels(analysisResult.getLabels());
+        // 文字检测结果也保存下来，之后修改分类规则时可以直接用已保存的数据重新分类
+        photo.setAiDetectedText(analysisResult.getDetectedText());
+        photo.setTextLineDetected(analysisResult.getTextLineDetected());
+        // photo.setAiDominantColors(analysisResult.getDominantColors()); // 新的Service中已移除
 
+        // 人脸分析
+        photo.setFaceCount(analysisResult.getFaceCount());
+        photo.setAllFacesSmiling(analysisResult.isAllFacesSmiling());
+        photo.setAllEyesOpen(analysisResult.isAllEyesOpen());
+
+        photo.setCloudAnalyzed(true); // 标记为已分析
+    }
+
+    /**
+     * 从队列中取出最多一批分析结果，在一个事务里写回数据库。
+     * 队列中的照片是事务外加载的游离实体，用 saveAll 会逐张 merge (每张一次 SELECT 加三个 EAGER 集合)，
+     * 所以这里直接用 JDBC 批量更新分析相关的列和两个集合表，整批只需要固定的几次往返。
+     * @return 本批成功保存的数量
+     */
+    private int saveBatch(Long albumId, BlockingQueue<Photo> analyzedPhotos) {
+        List<Photo> batch = new ArrayList<>(saveBatchSize);
+        analyzedPhotos.drainTo(batch, saveBatchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            writeAnalysisResults(batch);
+            analyzedCounter.increment(batch.size());
+            eventPublisher.publishEvent(new AlbumContentChangedEvent(albumId));
+            logger.info("已批量保存 {} 张照片的云端AI分析结果。", batch.size());
+            return batch.size();
         } catch (Exception e) {
-            logger.error("分析照片 {} (Key: {}) 失败: {}", photo.getOriginalFileName(), objectKey, e.getMessage());
+            failedCounter.increment(batch.size());
+            logger.error("批量保存 {} 张照片的分析结果失败: {}", batch.size(), e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    private void writeAnalysisResults(List<Photo> batch) {
+        // 按ID顺序更新照片行 (即加锁)，与重新分类任务的加锁顺序一致，避免互相等待形成死锁
+        batch.sort(Comparator.comparing(Photo::getId));
+        List<Long> ids = new ArrayList<>(batch.size());
+        List<Object[]> photoRows = new ArrayList<>(batch.size());
+        List<Object[]> categoryRows = new ArrayList<>();
+        List<Object[]> labelRows = new ArrayList<>();
+        for (Photo photo : batch) {
+            ids.add(photo.getId());
+            photoRows.add(new Object[]{photo.getAiDetectedText(), photo.getTextLineDetected(), photo.getFaceCount(),
+                    photo.isAllFacesSmiling(), photo.isAllEyesOpen(), photo.getId()});
+            if (photo.getCategories() != null) {
+                photo.getCategories().forEach(category -> categoryRows.add(new Object[]{photo.getId(), category}));
+            }
+            if (photo.getAiLabels() != null) {
+                photo.getAiLabels().forEach(label -> labelRows.add(new Object[]{photo.getId(), label}));
+            }
+        }
+        Map<String, Object> params = Map.of("ids", ids);
+        transactionTemplate.executeWithoutResult(status -> {
+            // 只更新分析结果相关的列，不会覆盖分析期间其他请求对照片的修改 (如点赞数)
+            jdbcTemplate.batchUpdate("UPDATE photos SET ai_detected_text = ?, text_line_detected = ?, face_count = ?, "
+                    + "all_faces_smiling = ?, all_eyes_open = ?, cloud_analyzed = true WHERE id = ?", photoRows);
+            namedParameterJdbcTemplate.update("DELETE FROM photo_categories WHERE photo_id IN (:ids)", params);
+            namedParameterJdbcTemplate.update("DELETE FROM photo_ai_labels WHERE photo_id IN (:ids)", params);
+            jdbcTemplate.batchUpdate("INSERT INTO photo_categories (photo_id, categories) VALUES (?, ?)", categoryRows);
+            jdbcTemplate.batchUpdate("INSERT INTO photo_ai_labels (photo_id, ai_labels) VALUES (?, ?)", labelRows);
+        });
+    }
+
+    private static boolean isThrottling(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ThrottlingException
+                    || t instanceof ProvisionedThroughputExceededException
+                    || t instanceof LimitExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordCompletion() {
+        long now = System.currentTimeMillis();
+        recentCompletions.addLast(now);
+        pruneCompletions(now);
+    }
+
+    private double photosPerSecond() {
+        long now = System.currentTimeMillis();
+        pruneCompletions(now);
+        return recentCompletions.size() * 1000.0 / THROUGHPUT_WINDOW_MILLIS;
+    }
+
+    private void pruneCompletions(long now) {
+        Long oldest;
+        while ((oldest = recentCompletions.peekFirst()) != null && now - oldest > THROUGHPUT_WINDOW_MILLIS) {
+            recentCompletions.pollFirst();
         }
     }
-}
\ No newline at end of file
+}
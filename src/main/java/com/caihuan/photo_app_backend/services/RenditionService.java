@@ -0,0 +1,265 @@
+package com.caihuan.photo_app_backend.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 服务端图片渲染 (缩略图 / AI分析预览图 / 分享图)
+ * 原图只解码一次，按 分享图 -> 预览图 -> 缩略图 的顺序逐级缩小，
+ * 每一级都从上一级的结果缩放，避免对全尺寸原图重复做缩放运算。
+ * 渲染在一个有界的 CPU 线程池中进行，队列满时直接拒绝，由调用方返回 503。
+ */
+@Service
+@RequiredArgsConstructor
+public class RenditionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenditionService.class);
+
+    private final MeterRegistry meterRegistry;
+
+    // 缩略图最长边 (像素)
+    @Value("${photoapp.rendition.thumbnail-size:400}")
+    private int thumbnailSize;
+
+    // AI分析预览图最长边，与客户端生成的预览图保持一致
+    @Value("${photoapp.rendition.preview-size:1280}")
+    private int previewSize;
+
+    // 分享页面展示用的大图最长边
+    @Value("${photoapp.rendition.share-size:2048}")
+    private int shareSize;
+
+    @Value("${photoapp.rendition.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    // 渲染线程数，默认等于 CPU 核数
+    @Value("${photoapp.rendition.threads:0}")
+    private int threads;
+
+    // 等待渲染的任务数上限
+    @Value("${photoapp.rendition.queue-capacity:32}")
+    private int queueCapacity;
+
+    // 原图像素上限，防止超大图片 (或解压炸弹) 耗尽堆内存
+    @Value("${photoapp.rendition.max-pixels:100000000}")
+    private long maxPixels;
+
+    private ThreadPoolExecutor renderExecutor;
+
+    /**
+     * 一张原图渲染出的三个 JPEG 版本。
+     */
+    public record Renditions(byte[] thumbnail, byte[] preview, byte[] share) {
+    }
+
+    @PostConstruct
+    public void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        renderExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("rendition-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        // 队列长度 (executor.queued) 接近 queue-capacity 时开始出现 503
+        new ExecutorServiceMetrics(renderExecutor, "rendition", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdown();
+    }
+
+    /**
+     * 在渲染线程池中把上传的原图渲染成三个版本，并等待完成。
+     * @param file 上传的原图
+     * @return 渲染结果
+     * @throws IOException 图片无法解码或渲染失败
+     * @throws java.util.concurrent.RejectedExecutionException 渲染队列已满
+     */
+    public Renditions render(MultipartFile file) throws IOException {
+        return await(renderExecutor.submit(() -> {
+            try (InputStream in = file.getInputStream()) {
+                return render(in, file.getOriginalFilename());
+            }
+        }));
+    }
+
+    /**
+     * 在渲染线程池中把一张图片缩小成 AI 分析用的尺寸 (最长边 preview-size，与批量同步的预览图一致)。
+     * 已经是不需要旋转的 JPEG、尺寸和大小都不超限时原样返回，不重新编码。
+     * @param imageBytes 图片字节
+     * @param maxBytes 结果的字节数上限
+     * @throws IOException 图片无法解码或渲染失败
+     * @throws java.util.concurrent.RejectedExecutionException 渲染队列已满
+     */
+    public byte[] renderForAnalysis(byte[] imageBytes, long maxBytes) throws IOException {
+        return await(renderExecutor.submit(() -> renderForAnalysis0(imageBytes, maxBytes)));
+    }
+
+    private <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("图片渲染被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("图片渲染失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private Renditions render(InputStream in, String fileName) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        BufferedImage original;
+        Orientation orientation;
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = openReader(imageInput, fileName);
+            try {
+                orientation = readOrientation(reader);
+                original = readSubsampled(reader, shareSize);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        // 边界框是正方形，缩放与旋转的先后不影响结果，所以先缩小再按 EXIF 方向旋转，只旋转小图
+        BufferedImage share = rotate(resize(original, shareSize), orientation);
+        BufferedImage preview = resize(share, previewSize);
+        BufferedImage thumbnail = resize(preview, thumbnailSize);
+
+        Renditions renditions = new Renditions(encode(thumbnail), encode(preview), encode(share));
+        logger.debug("渲染 {} 完成 (方向: {})，耗时 {} ms", fileName, orientation, System.currentTimeMillis() - startedAt);
+        return renditions;
+    }
+
+    private byte[] renderForAnalysis0(byte[] imageBytes, long maxBytes) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        BufferedImage preview;
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            ImageReader reader = openReader(imageInput, "analysis");
+            try {
+                Orientation orientation = readOrientation(reader);
+                boolean upright = orientation == null || orientation == Orientation.TOP_LEFT;
+                if (upright && imageBytes.length <= maxBytes
+                        && Math.max(reader.getWidth(0), reader.getHeight(0)) <= previewSize
+                        && "jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    return imageBytes;
+                }
+                preview = rotate(resize(readSubsampled(reader, previewSize), previewSize), orientation);
+            } finally {
+                reader.dispose();
+            }
+        }
+        byte[] encoded = encode(preview);
+        if (encoded.length > maxBytes) {
+            throw new IOException("缩小后的分析图仍超过 " + maxBytes + " 字节");
+        }
+        logger.debug("分析图缩小完成: {} -> {} 字节，耗时 {} ms", imageBytes.length, encoded.length, System.currentTimeMillis() - startedAt);
+        return encoded;
+    }
+
+    /**
+     * 找到能解码该图片的 ImageReader 并检查像素数上限，调用方负责 dispose。
+     */
+    private ImageReader openReader(ImageInputStream imageInput, String fileName) throws IOException {
+        Iterator<ImageReader> readers = imageInput == null ? null : ImageIO.getImageReaders(imageInput);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("不支持的图片格式: " + fileName);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(imageInput, true, false);
+        long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+        if (pixels > maxPixels) {
+            String size = reader.getWidth(0) + "x" + reader.getHeight(0);
+            reader.dispose();
+            throw new IOException("图片尺寸过大 (" + size + "): " + fileName);
+        }
+        return reader;
+    }
+
+    /**
+     * 解码时按整数倍隔行隔列采样，解码结果的最长边不小于 targetEdge (之后再高质量缩小)。
+     * 不采样时一张 1 亿像素的原图解码后约 400 MB，几个渲染任务并发就会耗尽堆内存；
+     * 采样后解码结果的最长边小于 2 * targetEdge，单个任务的内存有固定上限。
+     */
+    private BufferedImage readSubsampled(ImageReader reader, int targetEdge) throws IOException {
+        int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+        int subsampling = Math.max(1, longEdge / targetEdge);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private BufferedImage rotate(BufferedImage image, Orientation orientation) {
+        if (orientation == null || orientation == Orientation.TOP_LEFT) {
+            return image;
+        }
+        return ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+    }
+
+    private Orientation readOrientation(ImageReader reader) {
+        try {
+            return ExifUtils.getExifOrientation(reader, 0);
+        } catch (Exception e) {
+            // EXIF 损坏不影响渲染，按原方向处理
+            logger.debug("读取 EXIF 方向失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 缩小到最长边不超过 maxEdge (不放大)，同时统一转换为不带透明通道的 RGB，便于编码成 JPEG。
+     */
+    private BufferedImage resize(BufferedImage source, int maxEdge) throws IOException {
+        Thumbnails.Builder<BufferedImage> builder = Thumbnails.of(source).imageType(BufferedImage.TYPE_INT_RGB);
+        if (Math.max(source.getWidth(), source.getHeight()) > maxEdge) {
+            builder.size(maxEdge, maxEdge);
+        } else {
+            builder.scale(1.0);
+        }
+        return builder.asBufferedImage();
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thumbnails.of(image)
+                .scale(1.0)
+                .outputFormat("jpg")
+                .outputQuality(jpegQuality)
+                .toOutputStream(out);
+        return out.toByteArray();
+    }
+}
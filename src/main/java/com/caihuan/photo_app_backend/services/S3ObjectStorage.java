@@ -0,0 +1,244 @@
+package com.caihuan.photo_app_backend.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncRequestBodyFromInputStreamConfiguration;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 基于 AWS S3 的对象存储 (默认实现)
+ * 小对象使用同步客户端一次 PUT；大文件流式上传使用开启了分片上传的异步客户端。
+ */
+@Service
+@ConditionalOnProperty(name = "photoapp.storage.type", havingValue = "s3", matchIfMissing = true)
+@RequiredArgsConstructor
+public class S3ObjectStorage implements ObjectStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3ObjectStorage.class);
+
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+
+    private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Presigner s3Presigner;
+
+    @Value("${aws.s3.bucketName}")
+    private String bucketName;
+
+    // 同时读取输入流的流式上传数上限，每个上传占用一个读取线程
+    @Value("${photoapp.s3.multipart.stream-threads:16}")
+    private int streamThreads;
+
+    // 等待读取线程的上传数上限，超出时直接拒绝
+    @Value("${photoapp.s3.multipart.stream-queue-capacity:64}")
+    private int streamQueueCapacity;
+
+    private ThreadPoolExecutor streamExecutor;
+
+    @PostConstruct
+    public void init() {
+        streamExecutor = new ThreadPoolExecutor(streamThreads, streamThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(streamQueueCapacity),
+                Thread.ofPlatform().name("s3-stream-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdown();
+    }
+
+    @Override
+    public void put(String key, InputStream inputStream, long contentLength, String contentType) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(inputStream, contentLength));
+    }
+
+    /**
+     * 输入流由有界的读取线程池读出，按分片交给异步客户端并行上传。
+     * @throws java.util.concurrent.RejectedExecutionException 读取队列已满
+     */
+    @Override
+    public CompletableFuture<Void> putStreaming(String key, InputStream inputStream, Long contentLength, String contentType) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        AsyncRequestBody requestBody = AsyncRequestBody.fromInputStream(AsyncRequestBodyFromInputStreamConfiguration.builder()
+                .inputStream(inputStream)
+                .contentLength(contentLength)
+                .executor(streamExecutor)
+                .build());
+        CompletableFuture<PutObjectResponse> put = s3AsyncClient.putObject(putObjectRequest, requestBody);
+        CompletableFuture<Void> result = put.thenApply(response -> null);
+        // 取消派生的 future 不会传到 SDK，这里手动转发，SDK 会中止请求并放弃未完成的分片上传
+        result.whenComplete((ignored, e) -> {
+            if (result.isCancelled()) {
+                put.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build());
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end) throws IOException {
+        return getObject(GetObjectRequest.builder().bucket(bucketName).key(key).range("bytes=" + start + "-" + end).build());
+    }
+
+    private InputStream getObject(GetObjectRequest request) throws IOException {
+        try {
+            return s3Client.getObject(request);
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(request.key());
+        } catch (S3Exception e) {
+            throw new IOException("无法从S3下载文件 (key: " + request.key() + "): " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        try {
+            s3Client.getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build(), ResponseTransformer.toFile(target));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            throw new IOException("无法从S3下载文件 (key: " + key + "): " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    @Override
+    public Optional<ObjectMetadata> head(String key) {
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .checksumMode(ChecksumMode.ENABLED)
+                    .build());
+            return Optional.of(new ObjectMetadata(key, response.contentLength(), response.checksumSHA256()));
+        } catch (NoSuchKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<ObjectMetadata> list(String prefix) {
+        List<ObjectMetadata> objects = new ArrayList<>();
+        s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build())
+                .contents()
+                .forEach(object -> objects.add(new ObjectMetadata(object.key(), object.size(), null)));
+        return objects;
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        List<String> keyList = new ArrayList<>(keys);
+        // DeleteObjects 单次最多 1000 个 Key，超出时分批提交
+        for (int from = 0; from < keyList.size(); from += MAX_KEYS_PER_DELETE) {
+            List<ObjectIdentifier> objectIdentifiers = keyList
+                    .subList(from, Math.min(from + MAX_KEYS_PER_DELETE, keyList.size()))
+                    .stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList();
+
+            Delete deleteRequestPayload = Delete.builder()
+                    .objects(objectIdentifiers)
+                    .quiet(false)
+                    .build();
+
+            s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(deleteRequestPayload)
+                    .build());
+        }
+    }
+
+    @Override
+    public String presignGet(String key, Duration validity) {
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(validity)
+                .getObjectRequest(GetObjectRequest.builder().bucket(bucketName).key(key).build())
+                .build();
+        return s3Presigner.presignGetObject(presignRequest).url().toString();
+    }
+
+    @Override
+    public String presignPut(String key, long contentLength, String checksumSha256, Duration validity) {
+        PutObjectRequest.Builder putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType("image/jpeg")
+                .contentLength(contentLength);
+        if (checksumSha256 != null && !checksumSha256.isBlank()) {
+            putObjectRequest.checksumSHA256(checksumSha256);
+        }
+        PutObjectPresignRequest presignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(validity)
+                .putObjectRequest(putObjectRequest.build())
+                .build();
+        return s3Presigner.presignPutObject(presignRequest).url().toString();
+    }
+
+    @Override
+    public String publicUrl(String key) {
+        return s3Client.utilities().getUrl(builder -> builder.bucket(bucketName).key(key)).toExternalForm();
+    }
+
+    @Override
+    public String keyFromUrl(String fileUrl) {
+        try {
+            URL url = new URL(fileUrl);
+            // URL.getPath() 会返回如 "/some/path/file.jpg"，我们需要去掉开头的 "/"
+            return url.getPath().substring(1);
+        } catch (Exception e) {
+            logger.error("从URL提取Object Key失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String rekognitionBucket() {
+        return bucketName;
+    }
+}
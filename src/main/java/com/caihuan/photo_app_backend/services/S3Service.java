@@ -1,5 +1,12 @@
 package com.caihuan.photo_app_backend.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
@@ -7,29 +14,25 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.core.ResponseBytes;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 import org.springframework.http.MediaType; // 【新增】导入 MediaType
 
-import java.net.URL;
 import java.time.Duration;
 
-// ... a
-
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * @Author nanako
@@ -41,46 +44,173 @@ import java.util.stream.Collectors;
 public class S3Service {
 
 
-    private final S3Client s3Client;
-    private final S3Presigner s3Presigner;
+    // 具体的存储后端 (S3 或本地文件系统)，由 photoapp.storage.type 选择
+    private final ObjectStorage storage;
 
     private static final Logger logger = LoggerFactory.getLogger(S3Service.class);
 
-    // 2. 只注入本服务确实需要的配置项
-    @Value("${aws.s3.bucketName}")
-    private String bucketName;
+    private final MeterRegistry meterRegistry;
+
+    // 预签名时间窗口 (分钟)：同一窗口内对同一个 Key 返回同一个URL
+    @Value("${photoapp.s3.presign.window-minutes:10}")
+    private long presignWindowMinutes;
+
+    // 窗口结束后URL仍然有效的时长 (分钟)
+    @Value("${photoapp.s3.presign.validity-minutes:15}")
+    private long presignValidityMinutes;
+
+    // 预签名缓存的最大条目数
+    @Value("${photoapp.s3.presign.cache-size:50000}")
+    private long presignCacheSize;
+
+    // 批量签名时，未命中数量达到该值才并行签名
+    @Value("${photoapp.s3.presign.parallel-threshold:64}")
+    private int presignParallelThreshold;
+
+    private Cache<String, PresignedUrl> presignedUrlCache;
+    private Counter presignCacheHits;
+    private Counter presignCacheMisses;
+
+    /**
+     * 缓存的预签名URL，以及它所属的时间窗口。
+     */
+    private record PresignedUrl(String url, long window) {
+    }
+
+    /**
+     * 一次存储操作，可能抛出受检异常 E。
+     */
+    @FunctionalInterface
+    private interface StorageCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @PostConstruct
+    public void initPresignCache() {
+        // 条目在所属窗口结束时过期，容量超限时由 Caffeine 按 W-TinyLFU 淘汰
+        presignedUrlCache = Caffeine.newBuilder()
+                .maximumSize(presignCacheSize)
+                .expireAfter(new Expiry<String, PresignedUrl>() {
+                    @Override
+                    public long expireAfterCreate(String key, PresignedUrl value, long currentTime) {
+                        long remainingMillis = windowEndMillis(value.window()) - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(remainingMillis, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, PresignedUrl value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, PresignedUrl value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+
+        presignCacheHits = Counter.builder("s3.presign.cache")
+                .tag("result", "hit")
+                .description("预签名URL缓存命中次数")
+                .register(meterRegistry);
+        presignCacheMisses = Counter.builder("s3.presign.cache")
+                .tag("result", "miss")
+                .description("预签名URL缓存未命中次数 (即实际签名次数)")
+                .register(meterRegistry);
+        Gauge.builder("s3.presign.cache.size", presignedUrlCache, Cache::estimatedSize)
+                .description("预签名URL缓存当前条目数")
+                .register(meterRegistry);
+    }
 
 
     // =================================================================
-    // 【新增】生成预签名 URL 的核心方法
+    // 【新增】生成预签名 URL 的核心方法 (带缓存)
     // =================================================================
+    /**
+     * 为单个 Key 生成预签名URL。
+     * 同一时间窗口内重复请求会命中缓存并返回同一个URL，浏览器缓存才能生效。
+     */
     public String generatePresignedUrl(String objectKey) {
         if (objectKey == null || objectKey.isBlank()) {
             return null;
         }
+        long window = currentPresignWindow();
+        PresignedUrl cached = presignedUrlCache.getIfPresent(objectKey);
+        if (cached != null && cached.window() == window) {
+            presignCacheHits.increment();
+            return cached.url();
+        }
+        presignCacheMisses.increment();
+        return presignAndCache(objectKey, window);
+    }
+
+    /**
+     * 批量生成预签名URL (用于相册列表)。
+     * 先查缓存，未命中的 Key 数量较多时并行签名。
+     * @param objectKeys 要签名的 Key 集合，null 或空白的 Key 会被忽略
+     * @return Key -> 预签名URL，签名失败的 Key 不会出现在结果中
+     */
+    public Map<String, String> generatePresignedUrls(Collection<String> objectKeys) {
+        Map<String, String> result = new ConcurrentHashMap<>();
+        if (objectKeys == null || objectKeys.isEmpty()) {
+            return result;
+        }
+        long window = currentPresignWindow();
+        List<String> misses = new ArrayList<>();
+        for (String objectKey : new LinkedHashSet<>(objectKeys)) {
+            if (objectKey == null || objectKey.isBlank()) {
+                continue;
+            }
+            PresignedUrl cached = presignedUrlCache.getIfPresent(objectKey);
+            if (cached != null && cached.window() == window) {
+                result.put(objectKey, cached.url());
+            } else {
+                misses.add(objectKey);
+            }
+        }
+        presignCacheHits.increment(result.size());
+        presignCacheMisses.increment(misses.size());
+
+        // 签名是纯本地的 HMAC 计算，大相册时用并行流分摊到多个核
+        Stream<String> missStream = misses.size() >= presignParallelThreshold ? misses.parallelStream() : misses.stream();
+        missStream.forEach(objectKey -> {
+            String url = presignAndCache(objectKey, window);
+            if (url != null) {
+                result.put(objectKey, url);
+            }
+        });
+        return result;
+    }
+
+    private String presignAndCache(String objectKey, long window) {
         try {
-            // 【新增日志】
-            logger.info("S3 Presign: 正在为 Key [{}] 生成预签名URL", objectKey);
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectKey)
-                    .build();
-
-            GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                    .signatureDuration(Duration.ofMinutes(15)) // 设置链接有效期为 15 分钟
-                    .getObjectRequest(getObjectRequest)
-                    .build();
-
-            PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
-            return presignedRequest.url().toString();
+            logger.debug("S3 Presign: 正在为 Key [{}] 生成预签名URL", objectKey);
+
+            // 有效期 = 本窗口剩余时间 + 固定有效期，保证窗口内发出的URL在窗口结束后仍至少可用 validity 分钟
+            Duration signatureDuration = Duration.ofMillis(windowEndMillis(window) - System.currentTimeMillis())
+                    .plusMinutes(presignValidityMinutes);
+
+            String url = timed("presign_get", () -> storage.presignGet(objectKey, signatureDuration));
+            presignedUrlCache.put(objectKey, new PresignedUrl(url, window));
+            return url;
         } catch (Exception e) {
-            System.err.println("生成预签名URL失败: " + e.getMessage());
-            // 在生产环境中，这里应该使用日志框架，例如 SLF4J
-            // log.error("Error generating presigned URL for key {}: {}", objectKey, e.getMessage());
+            logger.error("生成预签名URL失败 (Key: {}): {}", objectKey, e.getMessage());
             return null;
         }
     }
 
+    private long currentPresignWindow() {
+        return System.currentTimeMillis() / presignWindowMillis();
+    }
+
+    private long windowEndMillis(long window) {
+        return (window + 1) * presignWindowMillis();
+    }
+
+    private long presignWindowMillis() {
+        return TimeUnit.MINUTES.toMillis(presignWindowMinutes);
+    }
+
     // =================================================================
     // 【新增】从完整 URL 中提取 Object Key 的辅助方法
     // =================================================================
@@ -88,85 +218,124 @@ public class S3Service {
         if (fileUrl == null || fileUrl.isBlank()) {
             return null;
         }
-        try {
-            URL url = new URL(fileUrl);
-            // URL.getPath() 会返回如 "/some/path/file.jpg"，我们需要去掉开头的 "/"
-            String objectKey = url.getPath().substring(1);
-            // 【新增日志】
-            logger.info("S3 Parse: 输入的 URL 是 [{}], 解析出的 Key 是 [{}]", fileUrl, objectKey);
-            return objectKey;
-        } catch (Exception e) {
-            System.err.println("从URL提取Object Key失败: " + e.getMessage());
-            return null;
-        }
+        String objectKey = storage.keyFromUrl(fileUrl);
+        logger.debug("S3 Parse: 输入的 URL 是 [{}], 解析出的 Key 是 [{}]", fileUrl, objectKey);
+        return objectKey;
     }
 
 
     /**
      * 上传文件到S3的核心逻辑。
-     * @param requestBody 要上传的文件内容。
+     * @param inputStream 要上传的文件内容。
+     * @param contentLength 内容长度 (字节)。
      * @param originalFileName 文件的原始名称。
      * @param prefix 要添加到文件名前缀 (例如 "thumb_", "original_")。
      * @return 上传后文件的公开URL。
      */
-    private String upload(RequestBody requestBody, String originalFileName, String prefix) {
+    private String upload(InputStream inputStream, long contentLength, String originalFileName, String prefix) {
         String fileName = prefix + UUID.randomUUID().toString() + "_" + originalFileName;
         // 【新增日志】
 
         logger.info("S3 Upload: 生成的文件名 (Key) 是: [{}]", fileName);
 
-        // 【核心修改】在构建 PutObjectRequest 时，增加 contentType
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(fileName)
-                .contentType(MediaType.IMAGE_JPEG_VALUE) // 告诉 S3 这是一个 JPEG 图片
-                .build();
+        putObject(fileName, inputStream, contentLength);
 
+        return storage.publicUrl(fileName);
+    }
+
+    /**
+     * 以指定的 Key 上传字节数组 (用于按内容寻址存储，Key 由调用方决定)。
+     */
+    public void uploadToKey(String key, byte[] fileBytes) {
+        logger.info("S3 Upload: 上传到指定的 Key [{}]", key);
+        putObject(key, new ByteArrayInputStream(fileBytes), fileBytes.length);
+    }
+
+    /**
+     * 以指定的 Key 上传输入流。
+     */
+    public void uploadToKey(String key, InputStream inputStream, long contentLength) {
+        logger.info("S3 Upload: 上传到指定的 Key [{}]", key);
+        putObject(key, inputStream, contentLength);
+    }
 
-        s3Client.putObject(putObjectRequest, requestBody);
+    private void putObject(String key, InputStream inputStream, long contentLength) {
+        try {
+            // 告诉存储这是一个 JPEG 图片
+            timed("put", () -> {
+                storage.put(key, inputStream, contentLength, MediaType.IMAGE_JPEG_VALUE);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("上传文件失败 (key: " + key + ")", e);
+        }
+    }
 
-        return s3Client.utilities().getUrl(builder -> builder.bucket(bucketName).key(fileName)).toExternalForm();
+    /**
+     * 检查对象是否已存在于S3中。
+     */
+    public boolean objectExists(String key) {
+        return headObject(key).isPresent();
+    }
+
+    /**
+     * 读取对象的元数据 (大小、SHA-256 校验和)，对象不存在时返回 empty。
+     */
+    public Optional<ObjectStorage.ObjectMetadata> headObject(String key) {
+        return timed("head", () -> storage.head(key));
+    }
+
+    /**
+     * 为客户端直传生成预签名 PUT URL。
+     * 内容长度会被签入URL；给出 SHA-256 时一并签入，存储会拒绝内容不一致的上传。
+     * @param key 目标 Key
+     * @param contentLength 文件大小 (字节)
+     * @param checksumSha256 文件内容 SHA-256 的 Base64 编码，可以为 null
+     * @param validity URL 有效期
+     */
+    public String generatePresignedPutUrl(String key, long contentLength, String checksumSha256, Duration validity) {
+        return timed("presign_put", () -> storage.presignPut(key, contentLength, checksumSha256, validity));
+    }
+
+    /**
+     * 返回对象的公开URL (与上传方法返回的URL格式一致)。
+     */
+    public String getObjectUrl(String key) {
+        return storage.publicUrl(key);
     }
 
     /**
      * 从字节数组上传缩略图 (用于本地处理后的结果)。
      */
     public String uploadThumbnail(byte[] fileBytes, String originalFileName) {
-        return upload(RequestBody.fromBytes(fileBytes), originalFileName, "thumb_");
+        return upload(new ByteArrayInputStream(fileBytes), fileBytes.length, originalFileName, "thumb_");
     }
 
     /**
-     * 从 MultipartFile 上传全分辨率的原始照片 (用于云端AI分析)。
+     * 从输入流上传缩略图 (用于 multipart 批量同步，文件内容不需要整体读入内存)。
      */
-    public String uploadOriginalPhoto(MultipartFile file) throws IOException {
-        return upload(RequestBody.fromInputStream(file.getInputStream(), file.getSize()), file.getOriginalFilename(), "original_");
+    public String uploadThumbnail(InputStream inputStream, long contentLength, String originalFileName) {
+        return upload(inputStream, contentLength, originalFileName, "thumb_");
     }
 
     /**
-     * 从 MultipartFile 上传最终的精修版本。
+     * 从 MultipartFile 上传全分辨率的原始照片 (用于云端AI分析)。
      */
-    public String uploadFinalVersion(MultipartFile file) throws IOException {
-        return upload(RequestBody.fromInputStream(file.getInputStream(), file.getSize()), file.getOriginalFilename(), "final_");
+    public String uploadOriginalPhoto(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return upload(in, file.getSize(), file.getOriginalFilename(), "original_");
+        }
     }
 
     /**
      * 从S3下载文件内容。
      */
     public byte[] downloadFile(String fileUrl) throws IOException {
-        try {
-            URI uri = new URI(fileUrl);
-            String key = uri.getPath().substring(1);
-
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(key)
-                    .build();
-
-            ResponseBytes<GetObjectResponse> objectAsBytes = s3Client.getObjectAsBytes(getObjectRequest);
-            return objectAsBytes.asByteArray();
-        } catch (Exception e) {
-            throw new IOException("无法从S3下载文件: " + fileUrl, e);
+        String key = getObjectKeyFromUrl(fileUrl);
+        if (key == null) {
+            throw new IOException("无法从S3下载文件: " + fileUrl);
         }
+        return downloadFileByKey(key);
     }
 
 // =================================================================
@@ -179,28 +348,32 @@ public class S3Service {
      * @throws IOException 下载失败时抛出异常
      */
     public byte[] downloadFileByKey(String objectKey) throws IOException {
-        try {
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectKey)
-                    .build();
-
-            ResponseBytes<GetObjectResponse> objectBytes = s3Client.getObjectAsBytes(getObjectRequest);
-            return objectBytes.asByteArray();
-        } catch (S3Exception e) {
-            // 捕获更具体的 S3 异常，便于排查
-            throw new IOException("无法从S3下载文件 (key: " + objectKey + "): " + e.awsErrorDetails().errorMessage(), e);
-        }
+        return timed("get", () -> {
+            try (InputStream in = storage.get(objectKey)) {
+                return in.readAllBytes();
+            }
+        });
+    }
+
+    /**
+     * 把对象直接下载到本地文件 (不经过内存中的字节数组)。
+     * @param objectKey S3 Object Key
+     * @param target 目标文件，必须尚不存在
+     * @return 对象不存在时返回 false
+     * @throws IOException 下载失败
+     */
+    public boolean downloadToFile(String objectKey, Path target) throws IOException {
+        return timed("download", () -> storage.download(objectKey, target));
     }
 
     /**
      * 从S3删除一个文件。
      */
-    public void deleteFile(String fileUrl) throws URISyntaxException {
-        URI uri = new URI(fileUrl);
-        String key = uri.getPath().substring(1);
-        DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder().bucket(bucketName).key(key).build();
-        s3Client.deleteObject(deleteObjectRequest);
+    public void deleteFile(String fileUrl) {
+        String key = getObjectKeyFromUrl(fileUrl);
+        if (key != null) {
+            deleteAll(List.of(key));
+        }
     }
 
     // ====================== 【新增的核心方法】 ======================
@@ -211,21 +384,39 @@ public class S3Service {
      * @return S3 Object Key
      */
     public String uploadAnalysisImageAndReturnKey(byte[] fileBytes, String originalFileName) {
+        return uploadAndReturnKey(new ByteArrayInputStream(fileBytes), fileBytes.length, originalFileName, "analysis_");
+    }
+
+    /**
+     * 从输入流上传用于AI分析的图片，并返回其 S3 Object Key。
+     * @param inputStream 图片内容
+     * @param contentLength 内容长度 (字节)
+     * @param originalFileName 原始文件名
+     * @return S3 Object Key
+     */
+    public String uploadAnalysisImageAndReturnKey(InputStream inputStream, long contentLength, String originalFileName) {
+        return uploadAndReturnKey(inputStream, contentLength, originalFileName, "analysis_");
+    }
+
+    /**
+     * 上传分享页面展示用的大图，并返回其 S3 Object Key。
+     * @param fileBytes 文件的字节数组
+     * @param originalFileName 原始文件名
+     * @return S3 Object Key
+     */
+    public String uploadShareImageAndReturnKey(byte[] fileBytes, String originalFileName) {
+        return uploadAndReturnKey(new ByteArrayInputStream(fileBytes), fileBytes.length, originalFileName, "share_");
+    }
+
+    private String uploadAndReturnKey(InputStream inputStream, long contentLength, String originalFileName, String prefix) {
         // 1. 生成唯一的Key (文件名)
-        String key = "analysis_" + UUID.randomUUID().toString() + "_" + originalFileName;
-        logger.info("S3 Upload (for Analysis): 生成的文件 Key 是: [{}]", key);
-
-        // 2. 构建请求
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(key)
-                .contentType(MediaType.IMAGE_JPEG_VALUE)
-                .build();
+        String key = prefix + UUID.randomUUID().toString() + "_" + originalFileName;
+        logger.info("S3 Upload (Key only): 生成的文件 Key 是: [{}]", key);
 
-        // 3. 上传文件
-        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(fileBytes));
+        // 2. 上传文件
+        putObject(key, inputStream, contentLength);
 
-        // 4. 直接返回 Key
+        // 3. 直接返回 Key
         return key;
     }
 
@@ -240,28 +431,43 @@ public class S3Service {
         }
 
         try {
-            List<ObjectIdentifier> objectIdentifiers = keysToDelete.stream()
-                    .map(key -> ObjectIdentifier.builder().key(key).build())
-                    .collect(Collectors.toList());
+            deleteAll(keysToDelete);
+            logger.info("成功提交了批量删除请求，共 {} 个对象。", keysToDelete.size());
 
-            Delete deleteRequestPayload = Delete.builder()
-                    .objects(objectIdentifiers)
-                    .quiet(false)
-                    .build();
-
-            DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
-                    .bucket(bucketName)
-                    .delete(deleteRequestPayload)
-                    .build();
+        } catch (Exception e) {
+            logger.error("批量删除对象时发生错误", e);
+            throw new RuntimeException("批量删除对象时发生错误", e);
+        }
+    }
 
-            s3Client.deleteObjects(deleteObjectsRequest);
-            logger.info("成功向S3提交了批量删除请求，共 {} 个对象。", keysToDelete.size());
+    private void deleteAll(List<String> keys) {
+        timed("delete", () -> {
+            storage.deleteAll(keys);
+            return null;
+        });
+    }
 
+    /**
+     * 执行一次存储操作并记录耗时 (s3.requests，按操作和结果打标签)。
+     * 存储后端为本地文件系统时同样记录，便于对比。
+     */
+    private <T, E extends Exception> T timed(String operation, StorageCall<T, E> call) throws E {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        String exception = "none";
+        try {
+            return call.call();
         } catch (Exception e) {
-            logger.error("批量删除S3对象时发生错误", e);
-            throw new RuntimeException("批量删除S3对象时发生错误", e);
+            outcome = "error";
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("s3.requests")
+                    .description("对象存储操作耗时")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .tag("exception", exception)
+                    .register(meterRegistry));
         }
     }
-
 }
-
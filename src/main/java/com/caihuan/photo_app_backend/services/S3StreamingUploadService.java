@@ -0,0 +1,76 @@
+package com.caihuan.photo_app_backend.services;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 大文件的流式分片上传 (精修大图)
+ * 输入流由存储后端边读边传 (S3 为异步分片上传，本地存储为直接写盘)，
+ * 文件不会整体读入内存，也不需要先落盘，调用方拿到的是一个 CompletableFuture。
+ */
+@Service
+@RequiredArgsConstructor
+public class S3StreamingUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3StreamingUploadService.class);
+
+    private final ObjectStorage storage;
+
+    /**
+     * 一次进行中的上传。
+     * @param key 对象 Key
+     * @param transfer 存储后端的上传 future，取消它会中止上传
+     * @param url 上传完成后得到文件的公开URL
+     */
+    public record StreamingUpload(String key, CompletableFuture<Void> transfer, CompletableFuture<String> url) {
+    }
+
+    /**
+     * 把输入流作为精修大图上传。
+     * @param inputStream 文件内容，上传结束前不能关闭
+     * @param contentLength 内容长度 (字节)，未知时传 null，此时按分片边读边传
+     * @param originalFileName 原始文件名
+     * @param contentType 内容类型，为空时按 JPEG 处理
+     * @return 进行中的上传，URL 与 S3Service 上传方法返回的格式一致
+     * @throws java.util.concurrent.RejectedExecutionException 读取队列已满
+     */
+    public StreamingUpload uploadFinalVersion(InputStream inputStream, Long contentLength,
+                                              String originalFileName, String contentType) {
+        String key = "final_" + UUID.randomUUID() + "_" + originalFileName;
+        logger.info("S3 Multipart Upload: 开始流式上传 [{}]，长度 {}", key, contentLength == null ? "未知" : contentLength);
+
+        long startedAt = System.currentTimeMillis();
+        CompletableFuture<Void> transfer = storage.putStreaming(key, inputStream, contentLength,
+                contentType == null || contentType.isBlank() ? MediaType.IMAGE_JPEG_VALUE : contentType);
+        CompletableFuture<String> url = transfer.thenApply(ignored -> {
+            logger.info("S3 Multipart Upload: [{}] 上传完成，耗时 {} ms", key, System.currentTimeMillis() - startedAt);
+            return storage.publicUrl(key);
+        });
+        return new StreamingUpload(key, transfer, url);
+    }
+
+    /**
+     * 放弃一次上传：还在传时中止它，已经传完的对象 (例如写库失败) 则删除。
+     */
+    public void abort(StreamingUpload upload) {
+        upload.transfer().cancel(true);
+        // 取消成功时 future 立即完成；上传已结束时对象可能已经存在，统一在完成后删除
+        upload.transfer().whenComplete((ignored, e) -> {
+            try {
+                storage.deleteAll(List.of(upload.key()));
+            } catch (RuntimeException deleteError) {
+                logger.warn("S3 Multipart Upload: 清理 [{}] 失败", upload.key(), deleteError);
+            }
+        });
+    }
+}
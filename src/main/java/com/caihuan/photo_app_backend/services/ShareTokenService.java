@@ -0,0 +1,65 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.repository.AlbumRepository;
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 分享令牌的解析与权限校验
+ * 令牌到相册ID的映射放在一个有界缓存里 (令牌创建后不会改变；相册删除后缓存的ID
+ * 不再对应任何照片，存在性查询自然失败)，
+ * 校验照片是否属于分享相册只需一次按主键的存在性查询，不再加载相册和照片实体。
+ */
+@Service
+@RequiredArgsConstructor
+public class ShareTokenService {
+
+    private final AlbumRepository albumRepository;
+    private final PhotoRepository photoRepository;
+
+    @Value("${photoapp.share.token-cache-size:10000}")
+    private int tokenCacheSize;
+
+    @Value("${photoapp.share.token-cache-ttl-minutes:30}")
+    private long tokenCacheTtlMinutes;
+
+    private Cache<String, Long> albumIdsByToken;
+
+    @PostConstruct
+    public void init() {
+        albumIdsByToken = Caffeine.newBuilder()
+                .maximumSize(tokenCacheSize)
+                .expireAfterWrite(Duration.ofMinutes(tokenCacheTtlMinutes))
+                .build();
+    }
+
+    /**
+     * 解析分享令牌对应的相册ID。无效的令牌不缓存。
+     */
+    public Optional<Long> resolveAlbumId(String shareToken) {
+        if (shareToken == null || shareToken.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(albumIdsByToken.get(shareToken,
+                token -> albumRepository.findIdByShareToken(token).orElse(null)));
+    }
+
+    /**
+     * 校验照片属于令牌对应的分享相册。
+     * @return 照片所属的相册ID；令牌无效或照片不属于该相册时为空
+     */
+    public Optional<Long> authorizePhoto(String shareToken, Long photoId) {
+        return resolveAlbumId(shareToken)
+                .filter(albumId -> photoRepository.existsByIdAndAlbumId(photoId, albumId));
+    }
+}
@@ -0,0 +1,122 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.payload.response.SharedAlbumResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 分享相册响应缓存
+ * 以 (分享令牌, 分页参数) 为键缓存组装好的分享页响应 (照片列表 + 预签名URL)。
+ * 同一个键的并发未命中只会有一个线程去构建，其余线程等待并复用结果。
+ * 相册内容变化时通过 AlbumContentChangedEvent 失效：每个相册有一个版本号，
+ * 构建时记录版本号，读取时版本号不一致就丢弃重建，
+ * 这样即使失效事件发生在构建过程中，也不会把旧数据留在缓存里。
+ * 缓存时长必须短于预签名URL的最短剩余有效期 (见 S3Service 的预签名配置)。
+ */
+@Service
+public class SharedAlbumCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedAlbumCacheService.class);
+
+    @Value("${photoapp.share.cache-size:1000}")
+    private int cacheSize;
+
+    @Value("${photoapp.share.cache-ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    private Cache<CacheKey, CachedResponse> responses;
+    private Cache<Long, Long> albumVersions;
+
+    /**
+     * 缓存键：分享令牌加分页参数 (未分页时 limit 为 null)。
+     */
+    public record CacheKey(String shareToken, Integer limit, String cursor, String sort) {
+    }
+
+    /**
+     * 构建分享页响应。必须在查到相册之后、读取照片之前调用 tracker.recordVersion，
+     * 以便记录这份响应所基于的相册版本。相册不存在时返回 null。
+     */
+    @FunctionalInterface
+    public interface ResponseBuilder {
+        SharedAlbumResponse build(VersionTracker tracker);
+    }
+
+    @FunctionalInterface
+    public interface VersionTracker {
+        void recordVersion(Long albumId);
+    }
+
+    private record CachedResponse(Long albumId, long version, SharedAlbumResponse response) {
+    }
+
+    @PostConstruct
+    public void init() {
+        Duration ttl = Duration.ofSeconds(cacheTtlSeconds);
+        responses = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttl)
+                .build();
+        // 版本号至少要比响应活得久；版本号被淘汰后读到 0，只会导致一次多余的重建
+        albumVersions = Caffeine.newBuilder()
+                .expireAfterAccess(ttl.multipliedBy(2))
+                .build();
+    }
+
+    /**
+     * 读取缓存的分享页响应，未命中时用 builder 构建 (同一个键只构建一次)。
+     * @return 响应；相册不存在时返回 null (不缓存)
+     */
+    public SharedAlbumResponse get(CacheKey key, ResponseBuilder builder) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CachedResponse cached = responses.get(key, k -> load(builder));
+            if (cached == null) {
+                return null;
+            }
+            if (cached.version() == currentVersion(cached.albumId())) {
+                return cached.response();
+            }
+            // 构建期间相册发生了变化，丢弃这份结果
+            responses.asMap().remove(key, cached);
+        }
+        // 相册在持续变化，本次不走缓存
+        return builder.build(albumId -> { });
+    }
+
+    private CachedResponse load(ResponseBuilder builder) {
+        long[] version = new long[1];
+        SharedAlbumResponse response = builder.build(albumId -> version[0] = currentVersion(albumId));
+        if (response == null) {
+            return null;
+        }
+        return new CachedResponse(response.getAlbum().getId(), version[0], response);
+    }
+
+    private long currentVersion(Long albumId) {
+        Long version = albumVersions.getIfPresent(albumId);
+        return version == null ? 0L : version;
+    }
+
+    /**
+     * 相册内容变化后失效该相册的所有缓存响应。
+     * 在事务提交后执行 (没有事务时立即执行)，保证之后的重建能读到新数据。
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAlbumContentChanged(AlbumContentChangedEvent event) {
+        albumVersions.asMap().merge(event.albumId(), 1L, Long::sum);
+        boolean removed = responses.asMap().values().removeIf(cached -> cached.albumId().equals(event.albumId()));
+        if (removed) {
+            logger.debug("相册 {} 内容已变化，已失效其分享页缓存。", event.albumId());
+        }
+    }
+}
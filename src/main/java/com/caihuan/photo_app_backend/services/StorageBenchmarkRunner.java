@@ -0,0 +1,129 @@
+package com.caihuan.photo_app_backend.services;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 存储后端的吞吐量对比 (只在 storage-benchmark profile 下运行)
+ * 用同样的对象数量、大小和并发度，分别测量当前配置的存储和一个临时目录下的本地存储的
+ * 写入 (模拟批量入库) 与读取 (模拟图片分发) 吞吐量，输出结果后退出应用。
+ * 用法: --spring.profiles.active=storage-benchmark --photoapp.storage.benchmark.objects=500
+ */
+@Component
+@Profile("storage-benchmark")
+@RequiredArgsConstructor
+public class StorageBenchmarkRunner implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageBenchmarkRunner.class);
+
+    private final ObjectStorage storage;
+    private final ApplicationContext applicationContext;
+
+    // 每轮写入/读取的对象数
+    @Value("${photoapp.storage.benchmark.objects:200}")
+    private int objectCount;
+
+    // 单个对象大小 (KB)，默认接近一张缩略图
+    @Value("${photoapp.storage.benchmark.object-size-kb:256}")
+    private int objectSizeKb;
+
+    // 并发线程数
+    @Value("${photoapp.storage.benchmark.threads:16}")
+    private int threads;
+
+    @Override
+    public void run(String... args) throws Exception {
+        byte[] payload = new byte[objectSizeKb * 1024];
+        ThreadLocalRandom.current().nextBytes(payload);
+        logger.info("存储基准测试: {} 个对象，每个 {} KB，{} 个线程", objectCount, objectSizeKb, threads);
+
+        benchmark(storage.getClass().getSimpleName(), storage, payload);
+
+        if (!(storage instanceof LocalObjectStorage)) {
+            Path root = Files.createTempDirectory("photoapp-storage-benchmark");
+            benchmark("LocalObjectStorage (" + root + ")", new LocalObjectStorage(root.toString(), "http://localhost", "benchmark"), payload);
+        }
+
+        System.exit(SpringApplication.exit(applicationContext, () -> 0));
+    }
+
+    private void benchmark(String name, ObjectStorage target, byte[] payload) throws Exception {
+        String prefix = "benchmark/" + UUID.randomUUID() + "/";
+        List<String> keys = new ArrayList<>(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            keys.add(prefix + i + ".jpg");
+        }
+        try {
+            long putMillis = timed(i -> {
+                try {
+                    target.put(keys.get(i), new ByteArrayInputStream(payload), payload.length, "image/jpeg");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            long getMillis = timed(i -> {
+                try (InputStream in = target.get(keys.get(i))) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            logger.info("[{}] 写入: {} ms, {} 对象/秒, {} MB/秒", name, putMillis,
+                    perSecond(objectCount, putMillis), perSecond((long) objectCount * objectSizeKb / 1024, putMillis));
+            logger.info("[{}] 读取: {} ms, {} 对象/秒, {} MB/秒", name, getMillis,
+                    perSecond(objectCount, getMillis), perSecond((long) objectCount * objectSizeKb / 1024, getMillis));
+        } finally {
+            target.deleteAll(keys);
+        }
+    }
+
+    /**
+     * 用固定大小的线程池并发执行 objectCount 次操作，返回总耗时 (毫秒)。
+     */
+    private long timed(IntConsumer operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long startedAt = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>(objectCount);
+            for (int i = 0; i < objectCount; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> operation.accept(index)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long perSecond(long amount, long millis) {
+        return amount * 1000 / millis;
+    }
+}
@@ -2,13 +2,19 @@ package com.caihuan.photo_app_backend.services;
 
 import com.caihuan.photo_app_backend.entity.User;
 import com.caihuan.photo_app_backend.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+
 /**
  * @Author nanako
  * @Date 2025/8/3
@@ -19,6 +25,23 @@ public class UserDetailsServiceImpl implements UserDetailsService {
     @Autowired
     UserRepository userRepository;
 
+    // 已认证请求使用的用户缓存：有界、定时过期，避免每个请求都查一次用户表和角色表
+    @Value("${photoapp.auth.principal-cache-size:10000}")
+    private int principalCacheSize;
+
+    @Value("${photoapp.auth.principal-cache-ttl-seconds:300}")
+    private long principalCacheTtlSeconds;
+
+    private Cache<String, UserDetailsImpl> principalCache;
+
+    @PostConstruct
+    public void init() {
+        principalCache = Caffeine.newBuilder()
+                .maximumSize(principalCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(principalCacheTtlSeconds))
+                .build();
+    }
+
     @Override
     @Transactional//事务
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
@@ -26,4 +49,11 @@ public class UserDetailsServiceImpl implements UserDetailsService {
                 .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username: " + username));
         return UserDetailsImpl.build(user);
     }
+
+    /**
+     * 供 JWT 过滤器使用的带缓存查询。登录认证仍走 loadUserByUsername，始终读取最新的密码。
+     */
+    public UserDetailsImpl loadCachedUserByUsername(String username) throws UsernameNotFoundException {
+        return principalCache.get(username, key -> (UserDetailsImpl) loadUserByUsername(key));
+    }
 }
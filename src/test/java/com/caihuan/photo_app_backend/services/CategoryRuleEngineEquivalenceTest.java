@@ -0,0 +1,118 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 内置分类规则与原来硬编码的 classifyPhoto 等价
+ * 用固定种子生成随机的标签组合 (规则里出现的标签、容易混淆的标签和无关标签，大小写随机)，
+ * 逐个比较 category-rules.json 的分类结果和旧代码的结果，包括顺序和“其他”兜底。
+ * 以后修改规则文件时，如果不是有意改变分类，这个测试应该保持通过。
+ */
+class CategoryRuleEngineEquivalenceTest {
+
+    private static final long SEED = 20261018L;
+    private static final int SAMPLES = 200_000;
+
+    // 旧代码判断的所有标签，加上几个名字相近或无关的标签
+    private static final List<String> VOCABULARY = List.of(
+            "Person", "Face", "Portrait", "Landscape", "Nature", "Sky", "Mountain", "Sea",
+            "Architecture", "Building", "Cityscape", "Animal", "Pet", "Dog", "Cat", "Bird",
+            "Food", "Dining", "Dessert", "Drink", "Restaurant",
+            "Car", "Vehicle", "Train", "Airplane", "Boat", "Bicycle",
+            "Flower", "Plant", "Potted Plant", "Sports", "Stadium", "Soccer", "Basketball",
+            "Party", "Celebration", "Birthday Cake", "Balloons", "Confetti",
+            "Concert", "Stage", "Performance", "Crowd", "Musical Instrument",
+            "Fireworks", "Christmas Tree", "Text", "Document", "Paper", "Screenshot", "Receipt",
+            "Monochrome", "Black and White", "Panorama",
+            "Tree", "Outdoors", "Indoors", "Plant Pot", "Pets", "Cake", "Furniture", "Clothing");
+
+    private static CategoryRuleEngine engine;
+
+    @BeforeAll
+    static void loadRules() throws Exception {
+        engine = new CategoryRuleEngine(new DefaultResourceLoader(), new ObjectMapper());
+        ReflectionTestUtils.setField(engine, "location", "classpath:category-rules.json");
+        ReflectionTestUtils.setField(engine, "reloadIntervalSeconds", 0L);
+        engine.init();
+    }
+
+    @Test
+    void shippedRulesMatchLegacyChain() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            List<String> labels = randomLabels(random);
+            boolean hasTextLine = random.nextBoolean();
+
+            assertThat(engine.classify(labels, hasTextLine))
+                    .as("labels=%s, hasTextLine=%s", labels, hasTextLine)
+                    .containsExactlyElementsOf(legacyClassify(labels, hasTextLine));
+        }
+    }
+
+    private static List<String> randomLabels(Random random) {
+        int count = random.nextInt(8);
+        List<String> labels = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+            String label = VOCABULARY.get(random.nextInt(VOCABULARY.size()));
+            labels.add(switch (random.nextInt(3)) {
+                case 0 -> label.toLowerCase(Locale.ROOT);
+                case 1 -> label.toUpperCase(Locale.ROOT);
+                default -> label;
+            });
+        }
+        return labels;
+    }
+
+    /**
+     * 规则引擎之前 ImageAnalysisService.classifyPhoto 的逻辑，原样保留作为对照
+     * (文字检测结果换成了 hasTextLine)。
+     */
+    private static List<String> legacyClassify(List<String> labels, boolean hasSignificantText) {
+        Set<String> labelSet = labels.stream()
+                .map(label -> label.toLowerCase())
+                .collect(Collectors.toCollection(HashSet::new));
+
+        List<String> categories = new ArrayList<>();
+
+        if (labelSet.contains("person") || labelSet.contains("face") || labelSet.contains("portrait")) categories.add("人像");
+        if (labelSet.contains("landscape") || labelSet.contains("nature") || labelSet.contains("sky") || labelSet.contains("mountain") || labelSet.contains("sea")) categories.add("风景");
+        if (labelSet.contains("architecture") || labelSet.contains("building") || labelSet.contains("cityscape")) categories.add("建筑");
+        if (labelSet.contains("animal") || labelSet.contains("pet") || labelSet.contains("dog") || labelSet.contains("cat") || labelSet.contains("bird")) categories.add("动物");
+        if (labelSet.contains("food") || labelSet.contains("dining") || labelSet.contains("dessert") || labelSet.contains("drink") || labelSet.contains("restaurant")) categories.add("美食");
+        if (labelSet.contains("car") || labelSet.contains("vehicle") || labelSet.contains("train") || labelSet.contains("airplane") || labelSet.contains("boat") || labelSet.contains("bicycle")) categories.add("交通工具");
+        if (labelSet.contains("flower") || labelSet.contains("plant") && !labelSet.contains("potted plant")) categories.add("自然细节");
+        if (labelSet.contains("sports") || labelSet.contains("stadium") || labelSet.contains("soccer") || labelSet.contains("basketball")) categories.add("体育运动");
+
+        if (labelSet.contains("party") || labelSet.contains("celebration") || labelSet.contains("birthday cake") || labelSet.contains("balloons") || labelSet.contains("confetti")) categories.add("派对与庆祝");
+        if (labelSet.contains("concert") || labelSet.contains("stage") || labelSet.contains("performance") || labelSet.contains("crowd") || labelSet.contains("musical instrument")) categories.add("演出活动");
+        if (labelSet.contains("fireworks")) categories.add("节日烟火");
+        if (labelSet.contains("christmas tree")) categories.add("节日");
+
+        if (hasSignificantText && (labelSet.contains("text") || labelSet.contains("document") || labelSet.contains("paper") || labelSet.contains("screenshot") || labelSet.contains("receipt"))) {
+            categories.add("文档与截图");
+        }
+        if (labelSet.contains("monochrome") || labelSet.contains("black and white")) categories.add("黑白照片");
+        if (labelSet.contains("panorama")) categories.add("全景照片");
+
+        if (categories.isEmpty()) {
+            categories.add("其他");
+        }
+        return categories;
+    }
+}
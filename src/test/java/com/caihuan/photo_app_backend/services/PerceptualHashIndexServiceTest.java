@@ -0,0 +1,115 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.payload.response.NearDuplicateGroupResponse;
+import com.caihuan.photo_app_backend.repository.PhotoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description BK 树搜索和近似重复分组
+ * 覆盖重复插入同一张照片 (loadIndex 与 onPhotosAdded 竞争) 和删除标记两种情况。
+ */
+class PerceptualHashIndexServiceTest {
+
+    private static final long ALBUM_ID = 1L;
+
+    private PhotoRepository photoRepository;
+    private PerceptualHashIndexService service;
+
+    @BeforeEach
+    void setUp() {
+        photoRepository = mock(PhotoRepository.class);
+        service = new PerceptualHashIndexService(photoRepository);
+        ReflectionTestUtils.setField(service, "indexCacheSize", 16);
+        ReflectionTestUtils.setField(service, "indexIdleMinutes", 60L);
+        service.init();
+    }
+
+    @Test
+    void treeSearchReturnsNodesWithinRadius() {
+        HammingBkTree tree = new HammingBkTree();
+        tree.add(0x0L, 1);
+        tree.add(0x0L, 2);
+        tree.add(0x3L, 3);
+        tree.add(0xFFL, 4);
+
+        // 哈希相同的照片共用一个节点
+        assertThat(tree.nodeCount()).isEqualTo(3);
+        assertThat(tree.search(0x0L, 2)).extracting(HammingBkTree.Node::hash).containsExactlyInAnyOrder(0x0L, 0x3L);
+        assertThat(tree.search(0x1L, 0)).isEmpty();
+        assertThat(tree.search(0x0L, 8)).hasSize(3);
+    }
+
+    @Test
+    void photoAddedAfterLoadIsNotIndexedTwice() {
+        // loadIndex 已经读到了 1、2 两张照片，之后同步流程又通知了同样的照片
+        givenAlbum(new long[][]{{1, 0x0L}, {2, 0xF0F0L}});
+        assertThat(service.findNearDuplicateGroups(ALBUM_ID, 2)).isEmpty();
+
+        service.onPhotosAdded(ALBUM_ID, List.of(photo(1, 0x0L), photo(2, 0xF0F0L), photo(3, 0x1L)));
+
+        List<NearDuplicateGroupResponse> groups = service.findNearDuplicateGroups(ALBUM_ID, 2);
+        assertThat(groups).hasSize(1);
+        assertThat(groups.get(0).getPhotoIds()).containsExactly(1L, 3L);
+        // 2 夹在中间，1 和 3 在上传顺序里不连续
+        assertThat(groups.get(0).isBurst()).isFalse();
+    }
+
+    @Test
+    void removedPhotoDoesNotBridgeGroups() {
+        // 1 与 3 的距离是 4，只能通过 2 连在一起
+        givenAlbum(new long[][]{{1, 0x0L}, {2, 0x3L}, {3, 0xFL}});
+        assertThat(service.findNearDuplicateGroups(ALBUM_ID, 2))
+                .singleElement()
+                .satisfies(group -> {
+                    assertThat(group.getPhotoIds()).containsExactly(1L, 2L, 3L);
+                    assertThat(group.isBurst()).isTrue();
+                });
+
+        service.onPhotoRemoved(ALBUM_ID, 2L);
+
+        assertThat(service.findNearDuplicateGroups(ALBUM_ID, 2)).isEmpty();
+    }
+
+    @Test
+    void removedPhotoIsDroppedFromSharedNode() {
+        givenAlbum(new long[][]{{1, 0x0L}, {2, 0x0L}, {3, 0x0L}});
+        assertThat(service.findNearDuplicateGroups(ALBUM_ID, 0)).hasSize(1);
+
+        service.onPhotoRemoved(ALBUM_ID, 2L);
+
+        assertThat(service.findNearDuplicateGroups(ALBUM_ID, 0))
+                .singleElement()
+                .satisfies(group -> {
+                    assertThat(group.getPhotoIds()).containsExactly(1L, 3L);
+                    // 删除的照片不计入上传顺序
+                    assertThat(group.isBurst()).isTrue();
+                });
+    }
+
+    private void givenAlbum(long[][] rows) {
+        List<Object[]> result = new ArrayList<>();
+        for (long[] row : rows) {
+            result.add(new Object[]{row[0], Long.toHexString(row[1])});
+        }
+        when(photoRepository.findPerceptualHashesByAlbumId(ALBUM_ID)).thenReturn(result);
+    }
+
+    private static Photo photo(long id, long hash) {
+        Photo photo = new Photo();
+        photo.setId(id);
+        photo.setPerceptualHash(Long.toHexString(hash));
+        return photo;
+    }
+}
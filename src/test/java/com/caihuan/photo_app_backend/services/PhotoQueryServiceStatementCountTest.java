@@ -0,0 +1,84 @@
+package com.caihuan.photo_app_backend.services;
+
+import com.caihuan.photo_app_backend.entity.Album;
+import com.caihuan.photo_app_backend.entity.Photo;
+import com.caihuan.photo_app_backend.payload.response.PhotoSummaryResponse;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author nanako
+ * @Date 2026/10/18
+ * @Description 照片列表的 SQL 条数与相册大小无关
+ * 用 Hibernate 的统计信息计数实际执行的语句，在不同大小的相册上都应该是固定的三条
+ * (照片列、分类、AI标签)，防止以后有人改回加载实体导致 N+1 查询。
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import(PhotoQueryService.class)
+class PhotoQueryServiceStatementCountTest {
+
+    private static final long EXPECTED_STATEMENTS = 3;
+
+    @Autowired
+    private PhotoQueryService photoQueryService;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    // listAlbumPhotos 不签名URL，只是 PhotoQueryService 的构造依赖
+    @MockBean
+    private S3Service s3Service;
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 250})
+    void listAlbumPhotosUsesFixedStatementCount(int albumSize) {
+        Long albumId = createAlbum(albumSize);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<PhotoSummaryResponse> photos = photoQueryService.listAlbumPhotos(albumId, false);
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(EXPECTED_STATEMENTS);
+        assertThat(photos).hasSize(albumSize);
+        assertThat(photos).allSatisfy(photo -> {
+            assertThat(photo.getCategories()).containsExactly("人像");
+            assertThat(photo.getAiLabels()).containsExactlyInAnyOrder("Person", "Smile");
+        });
+    }
+
+    private Long createAlbum(int albumSize) {
+        Album album = new Album();
+        album.setName("album-" + albumSize);
+        entityManager.persist(album);
+        for (int i = 0; i < albumSize; i++) {
+            Photo photo = new Photo();
+            photo.setAlbum(album);
+            photo.setOriginalFileName("IMG_" + i + ".JPG");
+            photo.setStorageUrl("https://bucket.s3.amazonaws.com/thumb_" + i + ".jpg");
+            photo.setCategories(List.of("人像"));
+            photo.setAiLabels(List.of("Person", "Smile"));
+            photo.setAiDominantColors(List.of());
+            photo.setCloudAnalyzed(true);
+            entityManager.persist(photo);
+        }
+        entityManager.flush();
+        // 清空持久化上下文，查询不能从一级缓存中取实体
+        entityManager.clear();
+        return album.getId();
+    }
+}